@@ -25,54 +25,141 @@ import android.content.Context;
 import android.content.pm.IPackageManager;
 import android.content.pm.PackageManager;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.RemoteException;
 import android.os.ServiceManager;
+import android.text.TextUtils;
+
+import java.io.PrintWriter;
 
 /**
  * Application installer for SIM Toolkit.
  *
+ * The requests are applied to the package manager on a dedicated worker thread.
+ * A burst of requests is merged into the last one, and a request which does not
+ * change the state applied last time is dropped. The label is overridden only by this
+ * package, so the one applied last time is still in effect. The enabled state is compared
+ * with the one in the package manager before it is changed, as it can be changed by others.
  */
 final class StkAppInstaller {
     private static final boolean DBG = TelephonyUtils.IS_DEBUGGABLE;
     private static final String LOG_TAG = StkAppInstaller.class.getSimpleName();
 
+    private static final Object sLock = new Object();
+    private static Handler sHandler = null;
+    private static Context sContext = null;
+
+    // The request which has not been applied yet, guarded by sLock.
+    private static boolean sHasPendingRequest = false;
+    private static boolean sPendingEnable = false;
+    private static boolean sPendingUpdateLabel = false;
+    private static String sPendingLabel = null;
+
+    // The state applied last time, which is accessed only on the worker thread.
+    private static Boolean sAppliedEnable = null;
+    private static boolean sIsLabelApplied = false;
+    private static String sAppliedLabel = null;
+
+    // Statistics, guarded by sLock.
+    private static int sRequestCount = 0;
+    private static int sMergedCount = 0;
+    private static int sSkippedCount = 0;
+    private static int sAppliedCount = 0;
+
     private StkAppInstaller() {
     }
 
     static void installOrUpdate(Context context, String label) {
+        request(context, true, true, label);
+    }
+
+    static void uninstall(Context context) {
+        request(context, false, false, null);
+    }
+
+    private static void request(Context context, boolean enable, boolean updateLabel,
+            String label) {
+        synchronized (sLock) {
+            sRequestCount++;
+            if (sHandler == null) {
+                HandlerThread thread = new HandlerThread("StkAppInstaller");
+                thread.start();
+                sHandler = new Handler(thread.getLooper());
+                sContext = context.getApplicationContext();
+            }
+            sPendingEnable = enable;
+            // The label requested before is still applied if this request does not update it.
+            if (updateLabel) {
+                sPendingUpdateLabel = true;
+                sPendingLabel = label;
+            }
+            if (sHasPendingRequest) {
+                sMergedCount++;
+                return;
+            }
+            sHasPendingRequest = true;
+            sHandler.post(StkAppInstaller::applyPendingRequest);
+        }
+    }
+
+    private static void applyPendingRequest() {
+        boolean enable;
+        boolean updateLabel;
+        String label;
+        synchronized (sLock) {
+            enable = sPendingEnable;
+            updateLabel = sPendingUpdateLabel;
+            label = sPendingLabel;
+            sHasPendingRequest = false;
+            sPendingUpdateLabel = false;
+            sPendingLabel = null;
+        }
+
+        if (updateLabel && sIsLabelApplied && TextUtils.equals(label, sAppliedLabel)) {
+            updateLabel = false;
+        }
+        boolean updateState = (sAppliedEnable == null || sAppliedEnable != enable);
+        if (!updateLabel && !updateState) {
+            synchronized (sLock) {
+                sSkippedCount++;
+            }
+            if (DBG) CatLog.d(LOG_TAG, "No change to be applied");
+            return;
+        }
+
         IPackageManager pm = IPackageManager.Stub.asInterface(ServiceManager.getService("package"));
-        if (pm != null) {
-            ComponentName component = new ComponentName(context, StkMain.class);
-            int userId = context.getUserId();
+        if (pm == null) {
+            return;
+        }
+        ComponentName component = new ComponentName(sContext, StkMain.class);
+        int userId = sContext.getUserId();
+        if (updateLabel) {
             int icon = R.drawable.ic_launcher_sim_toolkit;
             try {
-                try {
-                    if (label != null) {
-                        pm.overrideLabelAndIcon(component, label, icon, userId);
-                    } else {
-                        pm.restoreLabelAndIcon(component, userId);
-                    }
-                    if (DBG) CatLog.d(LOG_TAG, "Set the label to " + label);
-                } catch (SecurityException e) {
-                    CatLog.e(LOG_TAG, "Failed to set the label to " + label);
+                if (label != null) {
+                    pm.overrideLabelAndIcon(component, label, icon, userId);
+                } else {
+                    pm.restoreLabelAndIcon(component, userId);
                 }
-                setAppState(pm, component, userId, true);
-            } catch (RemoteException e) {
-                CatLog.e(LOG_TAG, "Failed to enable SIM Toolkit");
+                sIsLabelApplied = true;
+                sAppliedLabel = label;
+                if (DBG) CatLog.d(LOG_TAG, "Set the label to " + label);
+            } catch (SecurityException | RemoteException e) {
+                CatLog.e(LOG_TAG, "Failed to set the label to " + label);
             }
         }
-    }
-
-    static void uninstall(Context context) {
-        IPackageManager pm = IPackageManager.Stub.asInterface(ServiceManager.getService("package"));
-        if (pm != null) {
-            ComponentName component = new ComponentName(context, StkMain.class);
+        if (updateState) {
             try {
-                setAppState(pm, component, context.getUserId(), false);
+                setAppState(pm, component, userId, enable);
+                sAppliedEnable = enable;
             } catch (RemoteException e) {
-                CatLog.e(LOG_TAG, "Failed to disable SIM Toolkit");
+                CatLog.e(LOG_TAG, "Failed to " + (enable ? "enable" : "disable") + " SIM Toolkit");
             }
         }
+        synchronized (sLock) {
+            sAppliedCount++;
+        }
     }
 
     static void setAppState(IPackageManager pm, ComponentName component, int userId, boolean enable)
@@ -86,4 +173,11 @@ final class StkAppInstaller {
             if (DBG) CatLog.d(LOG_TAG, "SIM Toolkit is " + (enable ? "enabled" : "disabled"));
         }
     }
+
+    static void dump(PrintWriter pw) {
+        synchronized (sLock) {
+            pw.println("StkAppInstaller: requests=" + sRequestCount + " merged=" + sMergedCount
+                    + " skipped=" + sSkippedCount + " applied=" + sAppliedCount);
+        }
+    }
 }
@@ -21,13 +21,8 @@ import static com.android.internal.telephony.cat.CatCmdMessage.SetupEventListCon
 import static com.android.internal.telephony.cat.CatCmdMessage.SetupEventListConstants.USER_ACTIVITY_EVENT;
 
 import android.app.Activity;
-import android.app.ActivityManager;
-import android.app.ActivityManager.RunningTaskInfo;
 import android.app.AlertDialog;
-import android.app.HomeVisibilityListener;
-import android.app.KeyguardManager;
 import android.app.Notification;
-import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
@@ -36,31 +31,26 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
 import android.content.res.Resources;
 import android.content.res.Resources.NotFoundException;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
 import android.os.Message;
-import android.os.Parcel;
-import android.os.PersistableBundle;
-import android.os.PowerManager;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.os.Vibrator;
 import android.provider.Settings;
-import android.telephony.CarrierConfigManager;
-import android.telephony.SubscriptionInfo;
 import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyFrameworkInitializer;
 import android.telephony.TelephonyManager;
 import android.text.TextUtils;
+import android.util.SparseArray;
 import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -69,8 +59,6 @@ import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import androidx.localbroadcastmanager.content.LocalBroadcastManager;
-
 import com.android.internal.telephony.GsmAlphabet;
 import com.android.internal.telephony.ITelephony;
 import com.android.internal.telephony.PhoneConfigurationManager;
@@ -78,7 +66,6 @@ import com.android.internal.telephony.TelephonyIntents;
 import com.android.internal.telephony.cat.AppInterface;
 import com.android.internal.telephony.cat.CatCmdMessage;
 import com.android.internal.telephony.cat.CatCmdMessage.BrowserSettings;
-import com.android.internal.telephony.cat.CatCmdMessage.SetupEventListSettings;
 import com.android.internal.telephony.cat.CatLog;
 import com.android.internal.telephony.cat.CatResponseMessage;
 import com.android.internal.telephony.cat.CatService;
@@ -89,25 +76,47 @@ import com.android.internal.telephony.cat.ResultCode;
 import com.android.internal.telephony.cat.TextMessage;
 import com.android.internal.telephony.cat.ToneSettings;
 import com.android.internal.telephony.uicc.IccRefreshResponse;
+import com.android.stk.StkCmdScheduler.DelayedCmd;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
 
 /**
  * SIM toolkit application level service. Interacts with Telephopny messages,
  * application's launch and user input from STK UI elements.
  *
  */
-public class StkAppService extends Service implements Runnable {
+public class StkAppService extends Service {
+
+    /**
+     * Listener notified on the main thread when this service handled the session end event.
+     */
+    interface SessionListener {
+        void onSessionEnded(int slotId);
+    }
 
     // members
     protected class StkContext {
-        protected CatCmdMessage mMainCmd = null;
+        protected volatile CatCmdMessage mMainCmd = null;
+        // The main menu decorated with the preset label and icon, shared with the callers.
+        private volatile MainMenuSnapshot mMainMenuSnapshot = null;
+        // Whether the persisted main menu can be used until SET-UP MENU command arrives.
+        private volatile boolean mIsMenuSnapshotUsable = true;
+        // The persisted main menu shared with the callers, which is set once it is loaded.
+        private volatile Menu mMenuSnapshotView = null;
+        // Whether the main menu is launched once the persisted main menus are loaded.
+        // Guarded by the monitor of the service.
+        private boolean mIsLaunchDeferred = false;
+        // The state read by the UI components, published after each turn of the handler.
+        private volatile UiState mUiState = UiState.INITIAL;
         protected CatCmdMessage mCurrentCmd = null;
         protected CatCmdMessage mCurrentMenuCmd = null;
         protected Menu mCurrentMenu = null;
         protected String lastSelectedItem = null;
-        protected boolean mMenuIsVisible = false;
+        protected volatile boolean mMenuIsVisible = false;
         protected boolean mIsInputPending = false;
         protected boolean mIsMenuPending = false;
         protected boolean mIsDialogPending = false;
@@ -115,23 +124,40 @@ public class StkAppService extends Service implements Runnable {
         protected boolean mNoResponseFromUser = false;
         protected boolean launchBrowser = false;
         protected BrowserSettings mBrowserSettings = null;
-        protected LinkedList<DelayedCmd> mCmdsQ = null;
+        // The messages of this slot are held while the browser is being launched.
+        private volatile boolean mIsBrowserLaunching = false;
+        private long mBrowserLaunchTime = 0;
+        protected StkCmdScheduler mCmdsQ = null;
         protected boolean mCmdInProgress = false;
-        protected int mStkServiceState = STATE_UNKNOWN;
+        private boolean mIsDrainingCmdsQ = false;
+        private boolean mHasMoreDelayedCmd = false;
+        // Dedicated thread and handler of this slot used in the looper-per-slot mode.
+        private HandlerThread mHandlerThread = null;
+        private ServiceHandler mHandler = null;
+        protected int mSlotState = SLOT_CREATED;
         protected int mMenuState = StkMenuActivity.STATE_INIT;
         protected int mOpCode = -1;
         private Activity mActivityInstance = null;
         private Activity mDialogInstance = null;
         private Activity mImmediateDialogInstance = null;
         private int mSlotId = 0;
-        private SetupEventListSettings mSetupEventListSettings = null;
+        // Bitmask of the events requested by the last SET UP EVENT LIST command.
+        private int mSetupEventMask = 0;
         private boolean mClearSelectItem = false;
-        private boolean mDisplayTextDlgIsVisibile = false;
+        private volatile boolean mDisplayTextDlgIsVisibile = false;
         private CatCmdMessage mCurrentSetupEventCmd = null;
         private CatCmdMessage mIdleModeTextCmd = null;
+        // The number of SET-UP MENU commands which did not change the main menu.
+        private int mSetUpMenuDedupCount = 0;
         private boolean mIdleModeTextVisible = false;
         // Determins whether the current session was initiated by user operation.
         protected boolean mIsSessionFromUser = false;
+        // The tone, vibration and open channel dialog of the command of this slot.
+        private volatile TonePlayer mTonePlayer = null;
+        private Vibrator mVibrator = null;
+        private AlertDialog mAlertDialog = null;
+        // Whether the home key closes the screen of the session initiated by the SIM card.
+        private boolean mIsHomeKeyEventArmed = false;
         final synchronized void setPendingActivityInstance(Activity act) {
             CatLog.d(LOG_TAG, "setPendingActivityInstance act : " + mSlotId + ", " + act);
             callSetActivityInstMsg(OP_SET_ACT_INST, mSlotId, act);
@@ -165,16 +191,34 @@ public class StkAppService extends Service implements Runnable {
     private volatile ServiceHandler mServiceHandler;
     private Context mContext = null;
     private NotificationManager mNotificationManager = null;
+    private StkNotificationHelper mNotificationHelper = null;
+    // Set when the service is going to be stopped, so that no request is handed over directly.
+    private volatile boolean mIsStopping = false;
+    private StkScreenWaker mScreenWaker = null;
     static StkAppService sInstance = null;
     private AppInterface[] mStkService = null;
-    private StkContext[] mStkContext = null;
-    private int mSimCount = 0;
-    private HomeVisibilityListener mHomeVisibilityListener = null;
+    // Read by the UI threads without holding the monitor of the service.
+    private volatile StkContext[] mStkContext = null;
+    // The slots below this count are active. The contexts of new slots are created before
+    // the count is updated, so that any thread reading the count also sees them.
+    private volatile int mSimCount = 0;
+    private int mCmdQueueCapacity = 0;
+    private boolean mLooperPerSlot = false;
+    // Written only on the thread of mServiceHandler, and guarded by the monitor of the service.
+    private boolean mIsMenuSnapshotLoaded = false;
+    // Accessed only on the thread of mServiceHandler.
+    private boolean mIsUninstallCheckDeferred = false;
+    private StkForegroundTracker mForegroundTracker = null;
+    // Whether the idle screen is awaited for IDLE SCREEN AVAILABLE event or idle mode text.
+    private boolean mIsObservingHomeVisibility = false;
     private BroadcastReceiver mLocaleChangeReceiver = null;
-    private TonePlayer mTonePlayer = null;
-    private Vibrator mVibrator = null;
     private BroadcastReceiver mUserActivityReceiver = null;
-    private AlertDialog mAlertDialog = null;
+    // Whether the next user activity is downloaded to the card.
+    private boolean mIsUserActivityArmed = false;
+    // The number of user activities ignored as the event has already been downloaded.
+    private int mUserActivityCoalescedCount = 0;
+    // The number of slots requesting each event, indexed by the event.
+    private final int[] mSetupEventRefCounts = new int[Integer.SIZE];
 
     // Used for setting FLAG_ACTIVITY_NO_USER_ACTION when
     // creating an intent.
@@ -194,6 +238,7 @@ public class StkAppService extends Service implements Runnable {
     static final String CHOICE = "choice";
     static final String SLOT_ID = "SLOT_ID";
     static final String STK_CMD = "STK CMD";
+    static final String RECEIVED_TIME = "received time";
     static final String STK_DIALOG_URI = "stk://com.android.stk/dialog/";
     static final String STK_MENU_URI = "stk://com.android.stk/menu/";
     static final String STK_INPUT_URI = "stk://com.android.stk/input/";
@@ -221,9 +266,6 @@ public class StkAppService extends Service implements Runnable {
     static final int OP_SET_IMMED_DAL_INST = 13;
     static final int OP_HOME_KEY_PRESSED = 14;
 
-    //Invalid SetupEvent
-    static final int INVALID_SETUP_EVENT = 0xFF;
-
     // Message id to signal stop tone due to play tone timeout.
     private static final int OP_STOP_TONE = 16;
 
@@ -236,6 +278,12 @@ public class StkAppService extends Service implements Runnable {
     // Message id that multi-SIM config has changed (ss <-> ds).
     private static final int EVENT_MULTI_SIM_CONFIG_CHANGED = 21;
 
+    // Message id to check if the browser launched by LAUNCH BROWSER command is in the foreground.
+    private static final int OP_CHECK_BROWSER_LAUNCH = 22;
+
+    // Message id that the persisted main menus have been loaded.
+    private static final int OP_MENU_SNAPSHOT_LOADED = 23;
+
     // Response ids
     static final int RES_ID_MENU_SELECTION = 11;
     static final int RES_ID_INPUT = 12;
@@ -252,9 +300,15 @@ public class StkAppService extends Service implements Runnable {
     static final int YES = 1;
     static final int NO = 0;
 
-    static final int STATE_UNKNOWN = -1;
-    static final int STATE_NOT_EXIST = 0;
-    static final int STATE_EXIST = 1;
+    // Lifecycle of the binding between a slot and its CatService.
+    // The slot context is created, but the CatService has not been bound yet.
+    static final int SLOT_CREATED = 0;
+    // The CatService of the slot is bound.
+    static final int SLOT_BOUND = 1;
+    // The CatService of the slot is not available, e.g. the card is absent.
+    static final int SLOT_ABSENT = 2;
+    // The slot is no longer active.
+    static final int SLOT_DISPOSED = 3;
 
     private static final Integer PLAY_TONE_ONLY = 0;
     private static final Integer PLAY_TONE_WITH_DIALOG = 1;
@@ -265,66 +319,92 @@ public class StkAppService extends Service implements Runnable {
     private static final String STK_DIALOG_ACTIVITY_NAME = PACKAGE_NAME + ".StkDialogActivity";
     // Notification id used to display Idle Mode text in NotificationManager.
     private static final int STK_NOTIFICATION_ID = 333;
-    // Notification channel containing all mobile service messages notifications.
-    private static final String STK_NOTIFICATION_CHANNEL_ID = "mobileServiceMessages";
 
     private static final String LOG_TAG = StkAppService.class.getSimpleName();
 
-    static final String SESSION_ENDED = "session_ended";
-
-    // Inner class used for queuing telephony messages (proactive commands,
-    // session end) while the service is busy processing a previous message.
-    private class DelayedCmd {
-        // members
-        int id;
-        CatCmdMessage msg;
-        int slotId;
-
-        DelayedCmd(int id, CatCmdMessage msg, int slotId) {
-            this.id = id;
-            this.msg = msg;
-            this.slotId = slotId;
-        }
-    }
+    // The session listeners of each slot, which are held weakly.
+    private final SparseArray<ArrayList<WeakReference<SessionListener>>> mSessionListeners =
+            new SparseArray<>();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
 
     // system property to set the STK specific default url for launch browser proactive cmds
     private static final String STK_BROWSER_DEFAULT_URL_SYSPROP = "persist.radio.stk.default_url";
+    // The maximum time to hold the messages of the slot while the browser is being launched.
+    private static final long BROWSER_LAUNCH_TIMEOUT_MS = 3000;
 
     private static final int NOTIFICATION_ON_KEYGUARD = 1;
-    private static final long[] VIBRATION_PATTERN = new long[] { 0, 350, 250, 350 };
     private BroadcastReceiver mUserPresentReceiver = null;
 
     // The reason based on Intent.ACTION_CLOSE_SYSTEM_DIALOGS.
     private static final String SYSTEM_DIALOG_REASON_KEY = "reason";
     private static final String SYSTEM_DIALOG_REASON_HOME_KEY = "homekey";
     private static final String SYSTEM_DIALOG_REASON_RECENTAPPS_KEY = "recentapps";
+    // Registered when the home key event is observed first time and kept until onDestroy.
     private BroadcastReceiver mHomeKeyEventReceiver = null;
+    // The number of registrations of the home key event receiver, and the number of times
+    // the home key event was armed or disarmed without any registration.
+    private int mHomeKeyEventRegistrationCount = 0;
+    private int mHomeKeyEventToggleCount = 0;
     private static final int NOTIFICATION_PENDING_INTENT_REQUEST_CODE = 0;
 
     @Override
     public void onCreate() {
         CatLog.d(LOG_TAG, "onCreate()+");
+        StkCmdTracer.getInstance().onServiceCreating();
         // Initialize members
         int i = 0;
         mContext = getBaseContext();
         mSimCount = TelephonyManager.from(mContext).getActiveModemCount();
         int maxSimCount = TelephonyManager.from(mContext).getSupportedModemCount();
         CatLog.d(LOG_TAG, "simCount: " + mSimCount);
+        mCmdQueueCapacity = getResources().getInteger(R.integer.config_stk_cmd_queue_capacity);
+        mLooperPerSlot = getResources().getBoolean(R.bool.config_stk_looper_per_slot);
         mStkService = new AppInterface[maxSimCount];
         mStkContext = new StkContext[maxSimCount];
 
+        // The CatService of each slot is bound when it is used first time.
         for (i = 0; i < mSimCount; i++) {
             CatLog.d(LOG_TAG, "slotId: " + i);
-            mStkService[i] = CatService.getInstance(i);
             mStkContext[i] = new StkContext();
             mStkContext[i].mSlotId = i;
-            mStkContext[i].mCmdsQ = new LinkedList<DelayedCmd>();
+            mStkContext[i].mCmdsQ = new StkCmdScheduler(mCmdQueueCapacity);
+            startSlotLooper(mStkContext[i]);
         }
 
-        Thread serviceThread = new Thread(null, this, "Stk App Service");
+        // The handler is ready before any request is delivered to the service.
+        HandlerThread serviceThread = new HandlerThread("Stk App Service");
         serviceThread.start();
+        mServiceLooper = serviceThread.getLooper();
+        mServiceHandler = new ServiceHandler(mServiceLooper,
+                SubscriptionManager.INVALID_SIM_SLOT_INDEX);
+        StkCmdTracer.getInstance().onHandlerReady();
+        PhoneConfigurationManager.registerForMultiSimConfigChange(mServiceHandler,
+                EVENT_MULTI_SIM_CONFIG_CHANGED, null);
         mNotificationManager = (NotificationManager) mContext
                 .getSystemService(Context.NOTIFICATION_SERVICE);
+        mNotificationHelper = new StkNotificationHelper(mContext, mNotificationManager,
+                maxSimCount);
+        mScreenWaker = new StkScreenWaker(mContext, maxSimCount);
+        mForegroundTracker = new StkForegroundTracker(mContext,
+                new StkForegroundTracker.Callback() {
+                    @Override
+                    public void onHomeVisibilityChanged(boolean isHomeActivityVisible) {
+                        if (isHomeActivityVisible && stopObservingHomeVisibility()) {
+                            sendMessageToAllSlots(OP_IDLE_SCREEN, null);
+                        }
+                    }
+
+                    @Override
+                    public void onForegroundChanged() {
+                        notifyBrowserLaunchProgress();
+                    }
+                });
+        mForegroundTracker.start(getApplication());
+        StkMenuConfig.preload(getApplicationContext(), getMenuSnapshotStore().getHandler());
+        getMenuSnapshotStore().setOnLoadedCallback(
+                () -> mServiceHandler.obtainMessage(OP_MENU_SNAPSHOT_LOADED).sendToTarget());
+        getMenuSnapshotStore().load();
+        StkCmdTracer.getInstance().onServiceCreated();
         sInstance = this;
     }
 
@@ -341,6 +421,22 @@ public class StkAppService extends Service implements Runnable {
             return;
         }
 
+        handleRequest(args);
+    }
+
+    /*
+     * Returns true if the service is running and ready to handle the request directly
+     * without being started again.
+     */
+    boolean isReadyForRequest() {
+        return !mIsStopping && mServiceHandler != null;
+    }
+
+    /*
+     * Package api used by StkCmdReceiver to hand over the request directly
+     * if the service is already running in the same process.
+     */
+    void handleRequest(Bundle args) {
         int op = args.getInt(OPCODE);
         int slotId = 0;
         int i = 0;
@@ -348,54 +444,59 @@ public class StkAppService extends Service implements Runnable {
             slotId = args.getInt(SLOT_ID);
         }
         CatLog.d(LOG_TAG, "onStart sim id: " + slotId + ", op: " + op + ", *****");
-        if ((slotId >= 0 && slotId < mSimCount) && mStkService[slotId] == null) {
-            mStkService[slotId] = CatService.getInstance(slotId);
-            if (mStkService[slotId] == null) {
-                CatLog.d(LOG_TAG, "mStkService is: " + mStkContext[slotId].mStkServiceState);
-                mStkContext[slotId].mStkServiceState = STATE_NOT_EXIST;
-                //Check other StkService state.
-                //If all StkServices are not available, stop itself and uninstall apk.
-                for (i = 0; i < mSimCount; i++) {
-                    if (i != slotId
-                            && (mStkService[i] != null)
-                            && (mStkContext[i].mStkServiceState == STATE_UNKNOWN
-                            || mStkContext[i].mStkServiceState == STATE_EXIST)) {
-                       break;
-                   }
+        if ((slotId >= 0 && slotId < mSimCount) && getStkService(slotId) == null) {
+            CatLog.d(LOG_TAG, "mStkService is: " + mStkContext[slotId].mSlotState);
+            //Check other StkService state without binding them.
+            //If all StkServices are not available, stop itself and uninstall apk.
+            for (i = 0; i < mSimCount; i++) {
+                if (i != slotId && !isStkServiceUnavailable(i)) {
+                    break;
                 }
-            } else {
-                mStkContext[slotId].mStkServiceState = STATE_EXIST;
             }
             if (i == mSimCount) {
+                mIsStopping = true;
                 stopSelf();
                 StkAppInstaller.uninstall(this);
                 return;
             }
         }
 
-        waitForLooper();
+        switch (op) {
+        case OP_LOCALE_CHANGED:
+        case OP_IDLE_SCREEN:
+            // These are relevant to all slots.
+            sendMessageToAllSlots(op, args);
+            return;
+        case OP_BOOT_COMPLETED:
+            // This is not specific to any slot.
+            mServiceHandler.obtainMessage(op, 0, slotId).sendToTarget();
+            return;
+        default:
+            break;
+        }
 
-        Message msg = mServiceHandler.obtainMessage(op, 0, slotId);
+        Message msg = getHandler(slotId).obtainMessage(op, 0, slotId);
         switch (op) {
         case OP_CMD:
             msg.obj = args.getParcelable(CMD_MSG);
+            StkCmdTracer.getInstance().onReceived(slotId, (CatCmdMessage) msg.obj,
+                    args.getLong(RECEIVED_TIME));
             break;
         case OP_RESPONSE:
+            msg.obj = StkResponse.fromBundle(args);
+            break;
         case OP_CARD_STATUS_CHANGED:
-        case OP_LOCALE_CHANGED:
         case OP_ALPHA_NOTIFY:
-        case OP_IDLE_SCREEN:
         case OP_STOP_TONE_USER:
             msg.obj = args;
             /* falls through */
         case OP_LAUNCH_APP:
         case OP_END_SESSION:
-        case OP_BOOT_COMPLETED:
             break;
         default:
             return;
         }
-        mServiceHandler.sendMessage(msg);
+        msg.sendToTarget();
     }
 
     @Override
@@ -403,16 +504,17 @@ public class StkAppService extends Service implements Runnable {
         CatLog.d(LOG_TAG, "onDestroy()");
         unregisterUserActivityReceiver();
         unregisterHomeVisibilityObserver();
+        mForegroundTracker.stop();
         unregisterLocaleChangeReceiver();
         unregisterHomeKeyEventReceiver();
-        // close the AlertDialog if any is showing upon sim remove etc cases
-        if (mAlertDialog != null && mAlertDialog.isShowing()) {
-            mAlertDialog.dismiss();
-            mAlertDialog = null;
-        }
         sInstance = null;
-        waitForLooper();
+        getMenuSnapshotStore().setOnLoadedCallback(null);
         PhoneConfigurationManager.unregisterForMultiSimConfigChange(mServiceHandler);
+        for (int slot = 0; slot < mSimCount; slot++) {
+            // close the AlertDialog if any is showing upon sim remove etc cases
+            dismissOpenChannelDialog(mStkContext[slot]);
+            quitSlotLooper(mStkContext[slot]);
+        }
         mServiceLooper.quit();
     }
 
@@ -421,22 +523,39 @@ public class StkAppService extends Service implements Runnable {
         return null;
     }
 
-    public void run() {
-        Looper.prepare();
-
-        mServiceLooper = Looper.myLooper();
-        mServiceHandler = new ServiceHandler();
-
-        PhoneConfigurationManager.registerForMultiSimConfigChange(mServiceHandler,
-                EVENT_MULTI_SIM_CONFIG_CHANGED, null);
-
-        Looper.loop();
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        pw.println("StkAppService: simCount=" + mSimCount);
+        for (int slot = 0; slot < mSimCount; slot++) {
+            if (mStkContext[slot] != null) {
+                pw.println("  slot " + slot + ":");
+                pw.println("    state=" + mStkContext[slot].mSlotState);
+                mStkContext[slot].mCmdsQ.dump(pw, "    ");
+                pw.println("    setUpMenuDedup=" + mStkContext[slot].mSetUpMenuDedupCount);
+                pw.println("    setUpEventMask=0x"
+                        + Integer.toHexString(mStkContext[slot].mSetupEventMask));
+            }
+        }
+        synchronized (this) {
+            pw.println("  userActivity: armed=" + mIsUserActivityArmed
+                    + " coalesced=" + mUserActivityCoalescedCount);
+            pw.println("  homeKey: registered=" + (mHomeKeyEventReceiver != null)
+                    + " registrations=" + mHomeKeyEventRegistrationCount
+                    + " togglesWithoutIpc=" + mHomeKeyEventToggleCount);
+        }
+        StkCmdTracer.getInstance().dump(pw);
+        mForegroundTracker.dump(pw);
+        StkBitmapCache.getInstance(getApplicationContext()).dump(pw);
+        StkAppInstaller.dump(pw);
+        getMenuSnapshotStore().dump(pw);
+        mScreenWaker.dump(pw);
+        mNotificationHelper.dump(pw);
     }
 
     /*
      * Package api used by StkMenuActivity to indicate if its on the foreground.
      */
-    synchronized void indicateMenuVisibility(boolean visibility, int slotId) {
+    void indicateMenuVisibility(boolean visibility, int slotId) {
         if (slotId >= 0 && slotId < mSimCount) {
             mStkContext[slotId].mMenuIsVisible = visibility;
         }
@@ -445,86 +564,244 @@ public class StkAppService extends Service implements Runnable {
     /*
      * Package api used by StkDialogActivity to indicate if its on the foreground.
      */
-    synchronized void setDisplayTextDlgVisibility(boolean visibility, int slotId) {
+    void setDisplayTextDlgVisibility(boolean visibility, int slotId) {
         if (slotId >= 0 && slotId < mSimCount) {
             mStkContext[slotId].mDisplayTextDlgIsVisibile = visibility;
         }
     }
 
-    synchronized boolean isInputPending(int slotId) {
-        if (slotId >= 0 && slotId < mSimCount) {
-            CatLog.d(LOG_TAG, "isInputFinishBySrv: " + mStkContext[slotId].mIsInputPending);
-            return mStkContext[slotId].mIsInputPending;
+    boolean isInputPending(int slotId) {
+        UiState state = getUiState(slotId);
+        if (state != null) {
+            CatLog.d(LOG_TAG, "isInputFinishBySrv: " + state.inputPending);
+            return state.inputPending;
         }
         return false;
     }
 
-    synchronized boolean isMenuPending(int slotId) {
-        if (slotId >= 0 && slotId < mSimCount) {
-            CatLog.d(LOG_TAG, "isMenuPending: " + mStkContext[slotId].mIsMenuPending);
-            return mStkContext[slotId].mIsMenuPending;
+    boolean isMenuPending(int slotId) {
+        UiState state = getUiState(slotId);
+        if (state != null) {
+            CatLog.d(LOG_TAG, "isMenuPending: " + state.menuPending);
+            return state.menuPending;
         }
         return false;
     }
 
-    synchronized boolean isDialogPending(int slotId) {
-        if (slotId >= 0 && slotId < mSimCount) {
-            CatLog.d(LOG_TAG, "isDialogPending: " + mStkContext[slotId].mIsDialogPending);
-            return mStkContext[slotId].mIsDialogPending;
+    boolean isDialogPending(int slotId) {
+        UiState state = getUiState(slotId);
+        if (state != null) {
+            CatLog.d(LOG_TAG, "isDialogPending: " + state.dialogPending);
+            return state.dialogPending;
         }
         return false;
     }
 
-    synchronized boolean isMainMenuAvailable(int slotId) {
-        if (slotId >= 0 && slotId < mSimCount) {
-            // The main menu can handle the next user operation if the previous session finished.
-            return (mStkContext[slotId].lastSelectedItem == null) ? true : false;
-        }
-        return false;
+    boolean isMainMenuAvailable(int slotId) {
+        UiState state = getUiState(slotId);
+        // The main menu can handle the next user operation if the previous session finished.
+        return (state != null) ? state.mainMenuAvailable : false;
     }
 
     /*
      * Package api used by StkMenuActivity to get its Menu parameter.
      */
-    synchronized Menu getMenu(int slotId) {
+    Menu getMenu(int slotId) {
         CatLog.d(LOG_TAG, "StkAppService, getMenu, sim id: " + slotId);
-        if (slotId >=0 && slotId < mSimCount) {
-            return mStkContext[slotId].mCurrentMenu;
-        } else {
-            return null;
-        }
+        UiState state = getUiState(slotId);
+        return (state != null) ? state.currentMenu : null;
     }
 
     /*
      * Package api used by StkMenuActivity to get its Main Menu parameter.
+     * The returned menu is shared with other callers. Its item list cannot be modified,
+     * and neither the menu nor the items must be modified.
      */
-    synchronized Menu getMainMenu(int slotId) {
+    Menu getMainMenu(int slotId) {
         CatLog.d(LOG_TAG, "StkAppService, getMainMenu, sim id: " + slotId);
-        if (slotId >=0 && slotId < mSimCount && (mStkContext[slotId].mMainCmd != null)) {
-            Menu menu = mStkContext[slotId].mMainCmd.getMenu();
+        StkContext context = getStkContext(slotId);
+        if (context == null) {
+            return null;
+        }
+        CatCmdMessage mainCmd = context.mMainCmd;
+        if (mainCmd == null) {
+            // Provide the menu saved last time for the card until the card sends it again.
+            return context.mIsMenuSnapshotUsable ? context.mMenuSnapshotView : null;
+        }
+
+        StkMenuConfig config = StkMenuConfig.getInstance(getApplicationContext());
+        int configGeneration = config.getGeneration();
+        MainMenuSnapshot snapshot = context.mMainMenuSnapshot;
+        if (snapshot != null && snapshot.mainCmd == mainCmd
+                && snapshot.configGeneration == configGeneration) {
+            return snapshot.menu;
+        }
+
+        Menu menu = createMainMenuView(mainCmd.getMenu(), config, slotId);
+        context.mMainMenuSnapshot = new MainMenuSnapshot(mainCmd, configGeneration, menu);
+        return menu;
+    }
+
+    /*
+     * Creates the main menu shared with the callers, whose title is replaced with the preset
+     * label and icon if necessary. The items are shared with the original menu, and the lists
+     * are wrapped so that the callers cannot modify the original menu through them.
+     */
+    private static Menu createMainMenuView(Menu menu, StkMenuConfig config, int slotId) {
+        if (menu == null) {
+            return null;
+        }
+        Menu view = new Menu();
+        view.items = (menu.items != null) ? Collections.unmodifiableList(menu.items) : null;
+        view.titleAttrs = (menu.titleAttrs != null)
+                ? Collections.unmodifiableList(menu.titleAttrs) : null;
+        view.presentationType = menu.presentationType;
+        view.defaultItem = menu.defaultItem;
+        view.softKeyPreferred = menu.softKeyPreferred;
+        view.helpAvailable = menu.helpAvailable;
+        view.itemsIconSelfExplanatory = menu.itemsIconSelfExplanatory;
+        view.title = menu.title;
+        view.titleIcon = menu.titleIcon;
+        view.titleIconSelfExplanatory = menu.titleIconSelfExplanatory;
+
+        // If alpha identifier or icon identifier with the self-explanatory qualifier is
+        // specified in SET-UP MENU command, it should be more prioritized than preset ones.
+        if (menu.title != null || (menu.titleIcon != null && menu.titleIconSelfExplanatory)) {
+            return view;
+        }
+        String label = config.getLabel(slotId);
+        Bitmap icon = config.getIcon(slotId);
+        if (label != null || icon != null) {
+            view.title = label;
+            view.titleIcon = icon;
+            view.titleIconSelfExplanatory = false;
+        }
+        return view;
+    }
+
+    /*
+     * Package api used by StkMenuActivity to know if the main menu is the one saved last time.
+     * It can be displayed but cannot be selected, as the card has not sent SET-UP MENU yet.
+     */
+    boolean isMainMenuSnapshot(int slotId, Menu menu) {
+        StkContext context = getStkContext(slotId);
+        return menu != null && context != null && menu == context.mMenuSnapshotView;
+    }
+
+    /*
+     * Creates the views of the persisted main menus loaded in the background.
+     */
+    private void handleMenuSnapshotLoaded() {
+        StkMenuConfig config = StkMenuConfig.getInstance(getApplicationContext());
+        for (int slot = 0; slot < mSimCount; slot++) {
+            StkContext context = mStkContext[slot];
+            if (context == null || context.mMenuSnapshotView != null) {
+                continue;
+            }
+            Menu menu = getMenuSnapshotStore().getMenu(slot);
             if (menu != null) {
-                // If alpha identifier or icon identifier with the self-explanatory qualifier is
-                // specified in SET-UP MENU command, it should be more prioritized than preset ones.
-                if (menu.title == null
-                        && (menu.titleIcon == null || !menu.titleIconSelfExplanatory)) {
-                    StkMenuConfig config = StkMenuConfig.getInstance(getApplicationContext());
-                    String label = config.getLabel(slotId);
-                    Bitmap icon = config.getIcon(slotId);
-                    if (label != null || icon != null) {
-                        Parcel parcel = Parcel.obtain();
-                        menu.writeToParcel(parcel, 0);
-                        parcel.setDataPosition(0);
-                        menu = Menu.CREATOR.createFromParcel(parcel);
-                        parcel.recycle();
-                        menu.title = label;
-                        menu.titleIcon = icon;
-                        menu.titleIconSelfExplanatory = false;
-                    }
+                context.mMenuSnapshotView = createMainMenuView(menu, config, slot);
+                CatLog.d(LOG_TAG, "The saved main menu is available, slotId: " + slot);
+            }
+        }
+        synchronized (this) {
+            mIsMenuSnapshotLoaded = true;
+            for (int slot = 0; slot < mSimCount; slot++) {
+                StkContext context = mStkContext[slot];
+                if (context != null && context.mIsLaunchDeferred) {
+                    context.mIsLaunchDeferred = false;
+                    getHandler(slot).obtainMessage(OP_LAUNCH_APP, 0, slot).sendToTarget();
                 }
             }
-            return menu;
-        } else {
-            return null;
+        }
+        if (mIsUninstallCheckDeferred) {
+            mIsUninstallCheckDeferred = false;
+            uninstallIfUnnecessary();
+        }
+    }
+
+    /*
+     * Returns true if the main menu of the specified slot is launched once the persisted
+     * main menus are loaded, or false if they have been loaded already.
+     */
+    private synchronized boolean deferLaunchUntilMenuSnapshotLoaded(int slotId) {
+        if (mIsMenuSnapshotLoaded) {
+            return false;
+        }
+        mStkContext[slotId].mIsLaunchDeferred = true;
+        return true;
+    }
+
+    private StkMenuSnapshotStore getMenuSnapshotStore() {
+        return StkMenuSnapshotStore.getInstance(getApplicationContext(), mStkContext.length);
+    }
+
+    /*
+     * Immutable state of a slot read by the UI components. It is published by the handler
+     * after each turn, so the UI thread never waits for the service to read it.
+     */
+    private static final class UiState {
+        static final UiState INITIAL = new UiState(null, false, false, false, true);
+
+        final Menu currentMenu;
+        final boolean inputPending;
+        final boolean menuPending;
+        final boolean dialogPending;
+        final boolean mainMenuAvailable;
+
+        UiState(Menu currentMenu, boolean inputPending, boolean menuPending,
+                boolean dialogPending, boolean mainMenuAvailable) {
+            this.currentMenu = currentMenu;
+            this.inputPending = inputPending;
+            this.menuPending = menuPending;
+            this.dialogPending = dialogPending;
+            this.mainMenuAvailable = mainMenuAvailable;
+        }
+    }
+
+    private UiState getUiState(int slotId) {
+        StkContext context = getStkContext(slotId);
+        return (context != null) ? context.mUiState : null;
+    }
+
+    /*
+     * Publishes the state for the UI components if it was changed. Only the state of the
+     * specified slot is published, or of all slots if INVALID_SIM_SLOT_INDEX is specified.
+     * This is called after each turn of the handler, and also before any activity of the slot
+     * is started or finished in the middle of the turn, as the activity can read the state
+     * before the turn ends.
+     */
+    private void publishUiStates(int slotId) {
+        for (int slot = 0; slot < mSimCount; slot++) {
+            if (slotId != SubscriptionManager.INVALID_SIM_SLOT_INDEX && slot != slotId) {
+                continue;
+            }
+            StkContext context = mStkContext[slot];
+            if (context == null) {
+                continue;
+            }
+            UiState state = context.mUiState;
+            boolean mainMenuAvailable = (context.lastSelectedItem == null);
+            if (state.currentMenu != context.mCurrentMenu
+                    || state.inputPending != context.mIsInputPending
+                    || state.menuPending != context.mIsMenuPending
+                    || state.dialogPending != context.mIsDialogPending
+                    || state.mainMenuAvailable != mainMenuAvailable) {
+                context.mUiState = new UiState(context.mCurrentMenu, context.mIsInputPending,
+                        context.mIsMenuPending, context.mIsDialogPending, mainMenuAvailable);
+            }
+        }
+    }
+
+    private static final class MainMenuSnapshot {
+        final CatCmdMessage mainCmd;
+        final int configGeneration;
+        final Menu menu;
+
+        MainMenuSnapshot(CatCmdMessage mainCmd, int configGeneration, Menu menu) {
+            this.mainCmd = mainCmd;
+            this.configGeneration = configGeneration;
+            this.menu = menu;
         }
     }
 
@@ -536,20 +813,91 @@ public class StkAppService extends Service implements Runnable {
         return sInstance;
     }
 
-    private void waitForLooper() {
-        while (mServiceHandler == null) {
-            synchronized (this) {
-                try {
-                    wait(100);
-                } catch (InterruptedException e) {
-                }
+    /*
+     * Starts the dedicated looper of the slot if the looper-per-slot mode is enabled,
+     * so that a slow operation for a slot does not delay the commands from the other slots.
+     */
+    private void startSlotLooper(StkContext context) {
+        if (!mLooperPerSlot || context == null) {
+            return;
+        }
+        context.mHandlerThread = new HandlerThread("Stk App Service " + context.mSlotId);
+        context.mHandlerThread.start();
+        context.mHandler = new ServiceHandler(context.mHandlerThread.getLooper(), context.mSlotId);
+    }
+
+    private void quitSlotLooper(StkContext context) {
+        if (context == null || context.mHandlerThread == null) {
+            return;
+        }
+        context.mHandlerThread.quitSafely();
+        context.mHandlerThread = null;
+        context.mHandler = null;
+    }
+
+    /*
+     * Returns the handler which processes the messages for the specified slot.
+     */
+    private ServiceHandler getHandler(int slotId) {
+        if (slotId >= 0 && slotId < mStkContext.length && mStkContext[slotId] != null
+                && mStkContext[slotId].mHandler != null) {
+            return mStkContext[slotId].mHandler;
+        }
+        return mServiceHandler;
+    }
+
+    /*
+     * Sends the message which is relevant to all slots, such as a broadcast from the system.
+     * It is sent to the looper of each slot in the looper-per-slot mode.
+     */
+    private void sendMessageToAllSlots(int opcode, Object obj) {
+        if (!mLooperPerSlot) {
+            mServiceHandler.obtainMessage(opcode, obj).sendToTarget();
+            return;
+        }
+        for (int slot = 0; slot < mSimCount; slot++) {
+            getHandler(slot).obtainMessage(opcode, 0, slot, obj).sendToTarget();
+        }
+    }
+
+    private void removeMessagesFromAllSlots(int opcode) {
+        if (mServiceHandler != null) {
+            mServiceHandler.removeMessages(opcode);
+        }
+        for (int slot = 0; slot < mSimCount; slot++) {
+            if (mStkContext[slot] != null && mStkContext[slot].mHandler != null) {
+                mStkContext[slot].mHandler.removeMessages(opcode);
             }
         }
     }
 
     private final class ServiceHandler extends Handler {
+        // The slot which this handler is dedicated to, or INVALID_SIM_SLOT_INDEX for all slots.
+        private final int mHandlerSlotId;
+
+        ServiceHandler(Looper looper, int slotId) {
+            super(looper);
+            mHandlerSlotId = slotId;
+        }
+
+        private boolean isTargetSlot(int slotId) {
+            return mHandlerSlotId == SubscriptionManager.INVALID_SIM_SLOT_INDEX
+                    || mHandlerSlotId == slotId;
+        }
+
         @Override
         public void handleMessage(Message msg) {
+            handleServiceMessage(msg);
+            if (msg == null) {
+                return;
+            }
+            publishUiStates(mHandlerSlotId);
+            if (msg.what == OP_CMD) {
+                StkCmdTracer.getInstance().onCmdHandled();
+            }
+        }
+
+        private void handleServiceMessage(Message msg) {
             if(null == msg) {
                 CatLog.d(LOG_TAG, "ServiceHandler handleMessage msg is null");
                 return;
@@ -572,7 +920,13 @@ public class StkAppService extends Service implements Runnable {
             case OP_LAUNCH_APP:
                 if (mStkContext[slotId].mMainCmd == null) {
                     CatLog.d(LOG_TAG, "mMainCmd is null");
-                    // nothing todo when no SET UP MENU command didn't arrive.
+                    // Display the menu saved last time if SET UP MENU command didn't arrive.
+                    if (getMainMenu(slotId) != null) {
+                        CatLog.d(LOG_TAG, "Launch the saved main menu");
+                        launchMenuActivity(null, slotId);
+                    } else if (deferLaunchUntilMenuSnapshotLoaded(slotId)) {
+                        CatLog.d(LOG_TAG, "Wait for the saved main menu to be loaded");
+                    }
                     return;
                 }
                 CatLog.d(LOG_TAG, "handleMessage OP_LAUNCH_APP - mCmdInProgress[" +
@@ -590,6 +944,7 @@ public class StkAppService extends Service implements Runnable {
             case OP_CMD:
                 CatLog.d(LOG_TAG, "[OP_CMD]");
                 CatCmdMessage cmdMsg = (CatCmdMessage) msg.obj;
+                StkCmdTracer.getInstance().onDequeued(cmdMsg);
                 // There are two types of commands:
                 // 1. Interactive - user's response is required.
                 // 2. Informative - display a message, no interaction with the user.
@@ -598,7 +953,14 @@ public class StkAppService extends Service implements Runnable {
                 // Interactive commands can't override each other. So if a command
                 // is already in progress, we need to queue the next command until
                 // the user has responded or a timeout expired.
-                if (!isCmdInteractive(cmdMsg)) {
+                // Any command is also queued while the browser is being launched.
+                if (mStkContext[slotId].mIsBrowserLaunching) {
+                    CatLog.d(LOG_TAG, "[Browser launching]");
+                    if (!mStkContext[slotId].mCmdsQ.offer(new DelayedCmd(OP_CMD,
+                            cmdMsg, slotId))) {
+                        rejectCmd(cmdMsg, slotId);
+                    }
+                } else if (!isCmdInteractive(cmdMsg)) {
                     handleCmd(cmdMsg, slotId);
                 } else {
                     if (!mStkContext[slotId].mCmdInProgress) {
@@ -606,13 +968,15 @@ public class StkAppService extends Service implements Runnable {
                         handleCmd((CatCmdMessage) msg.obj, slotId);
                     } else {
                         CatLog.d(LOG_TAG, "[Interactive][in progress]");
-                        mStkContext[slotId].mCmdsQ.addLast(new DelayedCmd(OP_CMD,
-                                (CatCmdMessage) msg.obj, slotId));
+                        if (!mStkContext[slotId].mCmdsQ.offer(new DelayedCmd(OP_CMD,
+                                cmdMsg, slotId))) {
+                            rejectCmd(cmdMsg, slotId);
+                        }
                     }
                 }
                 break;
             case OP_RESPONSE:
-                handleCmdResponse((Bundle) msg.obj, slotId);
+                handleCmdResponse((StkResponse) msg.obj, slotId);
                 // call delayed commands if needed.
                 if (mStkContext[slotId].mCmdsQ.size() != 0) {
                     callDelayedMsg(slotId);
@@ -621,17 +985,26 @@ public class StkAppService extends Service implements Runnable {
                 }
                 break;
             case OP_END_SESSION:
-                if (!mStkContext[slotId].mCmdInProgress) {
+                if (!mStkContext[slotId].mCmdInProgress
+                        && !mStkContext[slotId].mIsBrowserLaunching) {
                     mStkContext[slotId].mCmdInProgress = true;
                     handleSessionEnd(slotId);
                 } else {
-                    mStkContext[slotId].mCmdsQ.addLast(
+                    mStkContext[slotId].mCmdsQ.offer(
                             new DelayedCmd(OP_END_SESSION, null, slotId));
                 }
                 break;
             case OP_BOOT_COMPLETED:
                 CatLog.d(LOG_TAG, " OP_BOOT_COMPLETED");
-                uninstallIfUnnecessary();
+                if (mIsMenuSnapshotLoaded) {
+                    uninstallIfUnnecessary();
+                } else {
+                    // The saved main menus can keep the application installed.
+                    mIsUninstallCheckDeferred = true;
+                }
+                break;
+            case OP_MENU_SNAPSHOT_LOADED:
+                handleMenuSnapshotLoaded();
                 break;
             case OP_DELAYED_MSG:
                 handleDelayedCmd(slotId);
@@ -676,17 +1049,19 @@ public class StkAppService extends Service implements Runnable {
             case OP_LOCALE_CHANGED:
                 CatLog.d(LOG_TAG, "Locale Changed");
                 for (int slot = 0; slot < mSimCount; slot++) {
-                    checkForSetupEvent(LANGUAGE_SELECTION_EVENT, (Bundle) msg.obj, slot);
+                    if (isTargetSlot(slot)) {
+                        checkForSetupEvent(LANGUAGE_SELECTION_EVENT, (Bundle) msg.obj, slot);
+                    }
                 }
                 // rename all registered notification channels on locale change
-                createAllChannels();
+                mNotificationHelper.createChannelsIfNecessary();
                 break;
             case OP_ALPHA_NOTIFY:
                 handleAlphaNotify((Bundle) msg.obj);
                 break;
             case OP_IDLE_SCREEN:
                for (int slot = 0; slot < mSimCount; slot++) {
-                    if (mStkContext[slot] != null) {
+                    if (mStkContext[slot] != null && isTargetSlot(slot)) {
                         handleIdleScreen(slot);
                     }
                 }
@@ -698,16 +1073,21 @@ public class StkAppService extends Service implements Runnable {
                 break;
             case OP_USER_ACTIVITY:
                 for (int slot = 0; slot < mSimCount; slot++) {
-                    checkForSetupEvent(USER_ACTIVITY_EVENT, null, slot);
+                    if (isTargetSlot(slot)) {
+                        checkForSetupEvent(USER_ACTIVITY_EVENT, null, slot);
+                    }
                 }
                 break;
             case EVENT_MULTI_SIM_CONFIG_CHANGED:
                 handleMultiSimConfigChanged();
                 break;
+            case OP_CHECK_BROWSER_LAUNCH:
+                checkBrowserLaunch(slotId, msg.arg1 != 0);
+                break;
             case OP_HOME_KEY_PRESSED:
                 CatLog.d(LOG_TAG, "Process the home key pressed event");
                 for (int slot = 0; slot < mSimCount; slot++) {
-                    if (mStkContext[slot] != null) {
+                    if (mStkContext[slot] != null && isTargetSlot(slot)) {
                         handleHomeKeyPressed(slot);
                     }
                 }
@@ -725,7 +1105,9 @@ public class StkAppService extends Service implements Runnable {
                 cancelIdleText(slotId);
                 mStkContext[slotId].mCurrentMenu = null;
                 mStkContext[slotId].mMainCmd = null;
-                mStkService[slotId] = null;
+                mStkContext[slotId].mIsMenuSnapshotUsable = false;
+                getMenuSnapshotStore().onCardAbsent(slotId);
+                unbindStkService(slotId);
                 // Stop the tone currently being played if the relevant SIM is removed or disabled.
                 if (mStkContext[slotId].mCurrentCmd != null
                         && mStkContext[slotId].mCurrentCmd.getCmdType().value()
@@ -737,6 +1119,7 @@ public class StkAppService extends Service implements Runnable {
                 }
                 if (isAllOtherCardsAbsent(slotId)) {
                     CatLog.d(LOG_TAG, "All CARDs are ABSENT");
+                    mIsStopping = true;
                     stopSelf();
                 }
             } else {
@@ -755,22 +1138,57 @@ public class StkAppService extends Service implements Runnable {
 
     private synchronized void handleMultiSimConfigChanged() {
         int oldSimCount = mSimCount;
-        mSimCount = TelephonyManager.from(mContext).getActiveModemCount();
-        for (int i = oldSimCount; i < mSimCount; i++) {
+        int newSimCount = TelephonyManager.from(mContext).getActiveModemCount();
+        for (int i = oldSimCount; i < newSimCount; i++) {
             CatLog.d(LOG_TAG, "slotId: " + i);
-            mStkService[i] = CatService.getInstance(i);
             mStkContext[i] = new StkContext();
             mStkContext[i].mSlotId = i;
-            mStkContext[i].mCmdsQ = new LinkedList<DelayedCmd>();
+            mStkContext[i].mCmdsQ = new StkCmdScheduler(mCmdQueueCapacity);
+            startSlotLooper(mStkContext[i]);
+        }
+        mSimCount = newSimCount;
+        if (newSimCount > oldSimCount) {
+            getMenuSnapshotStore().load();
         }
 
-        for (int i = mSimCount; i < oldSimCount; i++) {
+        for (int i = newSimCount; i < oldSimCount; i++) {
             CatLog.d(LOG_TAG, "slotId: " + i);
             if (mStkService[i] != null) {
                 mStkService[i].dispose();
                 mStkService[i] = null;
             }
-            mStkContext[i] = null;
+            mStkContext[i].mSlotState = SLOT_DISPOSED;
+            setSetupEventMask(0, i);
+            disposeSlot(mStkContext[i]);
+        }
+    }
+
+    /*
+     * Releases the context of the removed slot. In the looper-per-slot mode, it is done on
+     * the looper of the slot after the message being handled, so that the context is never
+     * released while the slot is handling a message.
+     */
+    private void disposeSlot(final StkContext context) {
+        final Handler handler = context.mHandler;
+        if (handler == null) {
+            releaseSlot(context);
+        } else {
+            handler.post(() -> releaseSlot(context));
+        }
+    }
+
+    private void releaseSlot(StkContext context) {
+        stopTone(context);
+        if (context.mIsBrowserLaunching) {
+            context.mIsBrowserLaunching = false;
+            mForegroundTracker.stopTrackingHome();
+        }
+        dismissOpenChannelDialog(context);
+        quitSlotLooper(context);
+        synchronized (this) {
+            if (mStkContext[context.mSlotId] == context) {
+                mStkContext[context.mSlotId] = null;
+            }
         }
     }
 
@@ -795,34 +1213,17 @@ public class StkAppService extends Service implements Runnable {
     }
 
     /* package */ boolean isScreenIdle() {
-        ActivityManager am = (ActivityManager) getSystemService(ACTIVITY_SERVICE);
-        List<RunningTaskInfo> tasks = am.getRunningTasks(1);
-        if (tasks == null || tasks.isEmpty()) {
-            return false;
-        }
-
-        String top = tasks.get(0).topActivity.getPackageName();
-        if (top == null) {
-            return false;
-        }
-
         // We can assume that the screen is idle if the home application is in the foreground.
-        final Intent intent = new Intent(Intent.ACTION_MAIN, null);
-        intent.addCategory(Intent.CATEGORY_HOME);
-
-        ResolveInfo info = getPackageManager().resolveActivity(intent,
-                PackageManager.MATCH_DEFAULT_ONLY);
-        if (info != null) {
-            if (top.equals(info.activityInfo.packageName)) {
-                return true;
-            }
-        }
-
-        return false;
+        return mForegroundTracker.isHomeOnTop();
     }
 
     private synchronized void startToObserveHomeKeyEvent(int slotId) {
-        if (mStkContext[slotId].mIsSessionFromUser || mHomeKeyEventReceiver != null) {
+        if (mStkContext[slotId].mIsSessionFromUser || mStkContext[slotId].mIsHomeKeyEventArmed) {
+            return;
+        }
+        mStkContext[slotId].mIsHomeKeyEventArmed = true;
+        if (mHomeKeyEventReceiver != null) {
+            mHomeKeyEventToggleCount++;
             return;
         }
         mHomeKeyEventReceiver = new BroadcastReceiver() {
@@ -830,16 +1231,63 @@ public class StkAppService extends Service implements Runnable {
                 final String reason = intent.getStringExtra(SYSTEM_DIALOG_REASON_KEY);
                 // gesture-based launchers may interpret swipe-up as "recent apps" instead of
                 // "home" so we accept both here
-                if (SYSTEM_DIALOG_REASON_HOME_KEY.equals(reason)
-                    || SYSTEM_DIALOG_REASON_RECENTAPPS_KEY.equals(reason)) {
-                    Message message = mServiceHandler.obtainMessage(OP_HOME_KEY_PRESSED);
-                    mServiceHandler.sendMessage(message);
+                if ((SYSTEM_DIALOG_REASON_HOME_KEY.equals(reason)
+                        || SYSTEM_DIALOG_REASON_RECENTAPPS_KEY.equals(reason))
+                        && isHomeKeyEventArmed()) {
+                    sendMessageToAllSlots(OP_HOME_KEY_PRESSED, null);
                 }
             }
         };
         CatLog.d(LOG_TAG, "Started to observe home key event");
         registerReceiver(mHomeKeyEventReceiver,
                 new IntentFilter(Intent.ACTION_CLOSE_SYSTEM_DIALOGS), Context.RECEIVER_EXPORTED);
+        mHomeKeyEventRegistrationCount++;
+    }
+
+    /*
+     * Stops handling the home key event for the specified slot.
+     * The receiver is kept registered, so that it can be armed again without any IPC.
+     */
+    private synchronized void stopToObserveHomeKeyEvent(int slotId) {
+        if (mStkContext[slotId].mIsHomeKeyEventArmed) {
+            mStkContext[slotId].mIsHomeKeyEventArmed = false;
+            mHomeKeyEventToggleCount++;
+        }
+    }
+
+    /*
+     * Returns true if the home key event is armed for the specified slot,
+     * or for any slot if INVALID_SIM_SLOT_INDEX is specified.
+     */
+    private synchronized boolean isHomeKeyEventArmed(int slotId) {
+        if (slotId != SubscriptionManager.INVALID_SIM_SLOT_INDEX) {
+            return mStkContext[slotId].mIsHomeKeyEventArmed;
+        }
+        for (int slot = 0; slot < mSimCount; slot++) {
+            if (mStkContext[slot] != null && mStkContext[slot].mIsHomeKeyEventArmed) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isHomeKeyEventArmed() {
+        return isHomeKeyEventArmed(SubscriptionManager.INVALID_SIM_SLOT_INDEX);
+    }
+
+    /*
+     * Returns the number of registrations of the home key event receiver. Used only by the tests.
+     */
+    synchronized int getHomeKeyEventRegistrationCountForTesting() {
+        return mHomeKeyEventRegistrationCount;
+    }
+
+    /*
+     * Returns the number of times the home key event was armed or disarmed without any
+     * registration. Used only by the tests.
+     */
+    synchronized int getHomeKeyEventToggleCountForTesting() {
+        return mHomeKeyEventToggleCount;
     }
 
     private synchronized void unregisterHomeKeyEventReceiver() {
@@ -848,16 +1296,14 @@ public class StkAppService extends Service implements Runnable {
             unregisterReceiver(mHomeKeyEventReceiver);
             mHomeKeyEventReceiver = null;
         }
-        if (mServiceHandler != null) {
-            mServiceHandler.removeMessages(OP_HOME_KEY_PRESSED);
-        }
+        removeMessagesFromAllSlots(OP_HOME_KEY_PRESSED);
     }
 
     private void handleHomeKeyPressed(int slotId) {
         // It might be hard for user to recognize that the dialog or screens belong to SIM Toolkit
         // application if the current session was not initiated by user but by the SIM card,
         // so it is recommended to send TERMINAL RESPONSE if user press the home key.
-        if (!mStkContext[slotId].mIsSessionFromUser) {
+        if (!mStkContext[slotId].mIsSessionFromUser && isHomeKeyEventArmed(slotId)) {
             Activity dialog = mStkContext[slotId].getPendingDialogInstance();
             Activity activity = mStkContext[slotId].getPendingActivityInstance();
             if (dialog != null) {
@@ -889,7 +1335,8 @@ public class StkAppService extends Service implements Runnable {
         CatResponseMessage resMsg = new CatResponseMessage(mStkContext[slotId].mCurrentCmd);
         CatLog.d(LOG_TAG, "SCREEN_BUSY");
         resMsg.setResultCode(ResultCode.TERMINAL_CRNTLY_UNABLE_TO_PROCESS);
-        mStkService[slotId].onCmdResponse(resMsg);
+        StkCmdTracer.getInstance().onResponded(slotId, mStkContext[slotId].mCurrentCmd);
+        sendCmdResponse(resMsg, slotId);
         if (mStkContext[slotId].mCmdsQ.size() != 0) {
             callDelayedMsg(slotId);
         } else {
@@ -903,22 +1350,22 @@ public class StkAppService extends Service implements Runnable {
      * @param args detailed parameters of the response
      * @param slotId slot identifier
      */
-    public void sendResponse(Bundle args, int slotId) {
-        Message msg = mServiceHandler.obtainMessage(OP_RESPONSE, 0, slotId, args);
-        mServiceHandler.sendMessage(msg);
+    /*
+     * Package api used by UI Activities and Dialogs to send the user response.
+     */
+    void sendResponse(StkResponse response, int slotId) {
+        Message msg = getHandler(slotId).obtainMessage(OP_RESPONSE, 0, slotId, response);
+        msg.sendToTarget();
     }
 
     private void sendResponse(int resId, int slotId, boolean confirm) {
-        Bundle args = new Bundle();
-        args.putInt(StkAppService.RES_ID, resId);
-        args.putBoolean(StkAppService.CONFIRMATION, confirm);
-        sendResponse(args, slotId);
+        sendResponse(StkResponse.of(resId, confirm), slotId);
     }
 
     private void terminateTone(int slotId) {
         Message msg = new Message();
         msg.what = OP_STOP_TONE;
-        msg.obj = mServiceHandler.hasMessages(OP_STOP_TONE, PLAY_TONE_WITH_DIALOG)
+        msg.obj = getHandler(slotId).hasMessages(OP_STOP_TONE, PLAY_TONE_WITH_DIALOG)
                 ? PLAY_TONE_WITH_DIALOG : PLAY_TONE_ONLY;
         handleStopTone(msg, slotId);
     }
@@ -945,11 +1392,23 @@ public class StkAppService extends Service implements Runnable {
 
     private void handleDelayedCmd(int slotId) {
         CatLog.d(LOG_TAG, "handleDelayedCmd, slotId: " + slotId);
-        if (mStkContext[slotId].mCmdsQ.size() != 0) {
-            DelayedCmd cmd = mStkContext[slotId].mCmdsQ.poll();
-            if (cmd != null) {
+        StkContext context = mStkContext[slotId];
+        if (context.mIsBrowserLaunching) {
+            CatLog.d(LOG_TAG, "handleDelayedCmd - wait for the browser to be launched");
+            return;
+        }
+        // Consecutive entries which do not wait for user's response are handled in this turn
+        // instead of posting OP_DELAYED_MSG again for each of them.
+        context.mIsDrainingCmdsQ = true;
+        try {
+            do {
+                context.mHasMoreDelayedCmd = false;
+                DelayedCmd cmd = context.mCmdsQ.poll();
+                if (cmd == null) {
+                    break;
+                }
                 CatLog.d(LOG_TAG, "handleDelayedCmd - queue size: " +
-                        mStkContext[slotId].mCmdsQ.size() +
+                        context.mCmdsQ.size() +
                         " id: " + cmd.id + "sim id: " + cmd.slotId);
                 switch (cmd.id) {
                 case OP_CMD:
@@ -959,18 +1418,117 @@ public class StkAppService extends Service implements Runnable {
                     handleSessionEnd(cmd.slotId);
                     break;
                 }
-            }
+            } while (context.mHasMoreDelayedCmd);
+        } finally {
+            context.mIsDrainingCmdsQ = false;
         }
     }
 
     private void callDelayedMsg(int slotId) {
-        Message msg = mServiceHandler.obtainMessage(OP_DELAYED_MSG, 0, slotId);
-        mServiceHandler.sendMessage(msg);
+        if (mStkContext[slotId].mIsBrowserLaunching) {
+            // The queued messages will be handled after the browser is launched.
+            return;
+        }
+        if (mStkContext[slotId].mIsDrainingCmdsQ) {
+            // The next entry will be handled by the ongoing handleDelayedCmd().
+            mStkContext[slotId].mHasMoreDelayedCmd = true;
+            return;
+        }
+        Message msg = getHandler(slotId).obtainMessage(OP_DELAYED_MSG, 0, slotId);
+        msg.sendToTarget();
+    }
+
+    /*
+     * Returns the CatService of the specified slot, which is bound on the first use.
+     * Returns null if it is not available.
+     */
+    private AppInterface getStkService(int slotId) {
+        synchronized (this) {
+            StkContext context = mStkContext[slotId];
+            if (context == null || context.mSlotState == SLOT_DISPOSED) {
+                return null;
+            }
+            if (mStkService[slotId] != null) {
+                return mStkService[slotId];
+            }
+        }
+        // The CatService is looked up without holding the monitor of the service,
+        // which is also acquired by the UI threads.
+        AppInterface stkService = CatService.getInstance(slotId);
+        synchronized (this) {
+            StkContext context = mStkContext[slotId];
+            if (context == null || context.mSlotState == SLOT_DISPOSED) {
+                return null;
+            }
+            // It may have been bound by another thread in the meantime.
+            if (mStkService[slotId] == null) {
+                mStkService[slotId] = stkService;
+                context.mSlotState = (stkService != null) ? SLOT_BOUND : SLOT_ABSENT;
+                CatLog.d(LOG_TAG, "Bind CatService, state: " + context.mSlotState
+                        + ", slotId: " + slotId);
+            }
+            return mStkService[slotId];
+        }
+    }
+
+    /*
+     * Returns true if the CatService of the specified slot is known to be unavailable.
+     * This does not bind the CatService of the slot which has not been used yet.
+     */
+    private synchronized boolean isStkServiceUnavailable(int slotId) {
+        StkContext context = mStkContext[slotId];
+        return context == null || context.mSlotState == SLOT_ABSENT
+                || context.mSlotState == SLOT_DISPOSED;
+    }
+
+    /*
+     * Binds the specified stand-in of CatService to the slot. Used only by the tests.
+     */
+    synchronized void setStkServiceForTesting(int slotId, AppInterface stkService) {
+        mStkService[slotId] = stkService;
+        mStkContext[slotId].mSlotState = (stkService != null) ? SLOT_BOUND : SLOT_ABSENT;
+    }
+
+    /*
+     * Runs the specified task on the handler of the slot and waits until it is done,
+     * so that the messages posted earlier have been handled. Used only by the tests.
+     */
+    boolean runOnHandlerForTesting(int slotId, Runnable task, long timeoutMs) {
+        return getHandler(slotId).runWithScissors(task, timeoutMs);
+    }
+
+    /*
+     * Unbinds the CatService of the specified slot, which is disposed when the card is absent.
+     */
+    private synchronized void unbindStkService(int slotId) {
+        mStkService[slotId] = null;
+        mStkContext[slotId].mSlotState = SLOT_ABSENT;
+    }
+
+    private void sendCmdResponse(CatResponseMessage resMsg, int slotId) {
+        AppInterface stkService = getStkService(slotId);
+        if (stkService == null) {
+            CatLog.d(LOG_TAG, "No response is sent back to the missing CatService.");
+            return;
+        }
+        stkService.onCmdResponse(resMsg);
+    }
+
+    /*
+     * Rejects the proactive command which cannot be queued as the queue is full.
+     */
+    private void rejectCmd(CatCmdMessage cmdMsg, int slotId) {
+        CatLog.d(LOG_TAG, "Command queue is full, reject " + cmdMsg.getCmdType()
+                + ", slotId: " + slotId);
+        CatResponseMessage resMsg = new CatResponseMessage(cmdMsg);
+        resMsg.setResultCode(ResultCode.TERMINAL_CRNTLY_UNABLE_TO_PROCESS);
+        StkCmdTracer.getInstance().onResponded(slotId, cmdMsg);
+        sendCmdResponse(resMsg, slotId);
     }
 
     private void callSetActivityInstMsg(int opcode, int slotId, Object obj) {
-        Message msg = mServiceHandler.obtainMessage(opcode, 0, slotId, obj);
-        mServiceHandler.sendMessage(msg);
+        Message msg = getHandler(slotId).obtainMessage(opcode, 0, slotId, obj);
+        msg.sendToTarget();
     }
 
     private void handleSessionEnd(int slotId) {
@@ -1004,68 +1562,24 @@ public class StkAppService extends Service implements Runnable {
             mStkContext[slotId].mMenuState = StkMenuActivity.STATE_MAIN;
         }
 
-        // Send a local broadcast as a notice that this service handled the session end event.
-        Intent intent = new Intent(SESSION_ENDED);
-        intent.putExtra(SLOT_ID, slotId);
-        LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
+        // Notify the listeners that this service handled the session end event.
+        notifySessionEnded(slotId);
 
+        // In case a launch browser command was just confirmed, launch that url.
+        if (mStkContext[slotId].launchBrowser) {
+            mStkContext[slotId].launchBrowser = false;
+            launchBrowser(mStkContext[slotId].mBrowserSettings, slotId);
+        }
         if (mStkContext[slotId].mCmdsQ.size() != 0) {
             callDelayedMsg(slotId);
         } else {
             mStkContext[slotId].mCmdInProgress = false;
         }
-        // In case a launch browser command was just confirmed, launch that url.
-        if (mStkContext[slotId].launchBrowser) {
-            mStkContext[slotId].launchBrowser = false;
-            launchBrowser(mStkContext[slotId].mBrowserSettings);
-        }
     }
 
     // returns true if any Stk related activity already has focus on the screen
     boolean isTopOfStack() {
-        ActivityManager mActivityManager = (ActivityManager) mContext
-                .getSystemService(ACTIVITY_SERVICE);
-        String currentPackageName = null;
-        List<RunningTaskInfo> tasks = mActivityManager.getRunningTasks(1);
-        if (tasks == null || tasks.get(0).topActivity == null) {
-            return false;
-        }
-        currentPackageName = tasks.get(0).topActivity.getPackageName();
-        if (null != currentPackageName) {
-            return currentPackageName.equals(PACKAGE_NAME);
-        }
-        return false;
-    }
-
-    /**
-     * Get the boolean config from carrier config manager.
-     *
-     * @param context the context to get carrier service
-     * @param key config key defined in CarrierConfigManager
-     * @param slotId slot ID.
-     * @return boolean value of corresponding key.
-     */
-    /* package */ static boolean getBooleanCarrierConfig(Context context, String key, int slotId) {
-        CarrierConfigManager ccm = (CarrierConfigManager) context.getSystemService(
-                Context.CARRIER_CONFIG_SERVICE);
-        SubscriptionManager sm = (SubscriptionManager) context.getSystemService(
-                Context.TELEPHONY_SUBSCRIPTION_SERVICE);
-        PersistableBundle b = null;
-        if (ccm != null && sm != null) {
-            SubscriptionInfo info = sm.getActiveSubscriptionInfoForSimSlotIndex(slotId);
-            if (info != null) {
-                b = ccm.getConfigForSubId(info.getSubscriptionId());
-            }
-        }
-        if (b != null) {
-            return b.getBoolean(key);
-        }
-        // Return static default defined in CarrierConfigManager.
-        return CarrierConfigManager.getDefaultConfig().getBoolean(key);
-    }
-
-    private boolean getBooleanCarrierConfig(String key, int slotId) {
-        return getBooleanCarrierConfig(this, key, slotId);
+        return mForegroundTracker.isStkOnTop();
     }
 
     private void handleCmd(CatCmdMessage cmdMsg, int slotId) {
@@ -1112,19 +1626,35 @@ public class StkAppService extends Service implements Runnable {
             break;
         case SET_UP_MENU:
             mStkContext[slotId].mCmdInProgress = false;
+            Menu previousMainMenu = (mStkContext[slotId].mMainCmd != null)
+                    ? mStkContext[slotId].mMainCmd.getMenu() : null;
             mStkContext[slotId].mMainCmd = mStkContext[slotId].mCurrentCmd;
             mStkContext[slotId].mCurrentMenuCmd = mStkContext[slotId].mCurrentCmd;
             mStkContext[slotId].mCurrentMenu = cmdMsg.getMenu();
+            if (isSameMenu(previousMainMenu, cmdMsg.getMenu())) {
+                // The card resent the same menu, so the application and the main menu
+                // being displayed are already up to date.
+                mStkContext[slotId].mSetUpMenuDedupCount++;
+                CatLog.d(LOG_TAG, "SET_UP_MENU is not changed");
+                if (mStkContext[slotId].mMenuIsVisible
+                        && mStkContext[slotId].mMenuState != StkMenuActivity.STATE_MAIN) {
+                    launchMenuActivity(null, slotId);
+                }
+                break;
+            }
             CatLog.d(LOG_TAG, "SET_UP_MENU [" + removeMenu(slotId) + "]");
 
             if (removeMenu(slotId)) {
                 mStkContext[slotId].mCurrentMenu = null;
                 mStkContext[slotId].mMainCmd = null;
+                mStkContext[slotId].mIsMenuSnapshotUsable = false;
+                getMenuSnapshotStore().remove(slotId);
                 //Check other setup menu state. If all setup menu are removed, uninstall apk.
                 if (!uninstallIfUnnecessary()) {
                     addToMenuSystemOrUpdateLabel();
                 }
             } else {
+                getMenuSnapshotStore().save(slotId, cmdMsg.getMenu());
                 addToMenuSystemOrUpdateLabel();
             }
             if (mStkContext[slotId].mMenuIsVisible) {
@@ -1172,8 +1702,8 @@ public class StkAppService extends Service implements Runnable {
             }
 
             /* Check if Carrier would not want to launch browser */
-            if (getBooleanCarrierConfig(CarrierConfigManager.KEY_STK_DISABLE_LAUNCH_BROWSER_BOOL,
-                    slotId)) {
+            if (StkCarrierConfigCache.getInstance(getApplicationContext())
+                    .isLaunchBrowserDisabled(slotId)) {
                 CatLog.d(LOG_TAG, "Browser is not launched as per carrier.");
                 sendResponse(RES_ID_DONE, slotId, true);
                 break;
@@ -1244,6 +1774,7 @@ public class StkAppService extends Service implements Runnable {
             break;
         }
 
+        StkCmdTracer.getInstance().onLaunched(slotId, cmdMsg, waitForUsersResponse);
         if (!waitForUsersResponse) {
             if (mStkContext[slotId].mCmdsQ.size() != 0) {
                 callDelayedMsg(slotId);
@@ -1280,35 +1811,32 @@ public class StkAppService extends Service implements Runnable {
     }
 
     @SuppressWarnings("FallThrough")
-    private void handleCmdResponse(Bundle args, int slotId) {
+    private void handleCmdResponse(StkResponse response, int slotId) {
         CatLog.d(LOG_TAG, "handleCmdResponse, sim id: " + slotId);
-        unregisterHomeKeyEventReceiver();
+        stopToObserveHomeKeyEvent(slotId);
         if (mStkContext[slotId].mCurrentCmd == null) {
             return;
         }
 
-        if (mStkService[slotId] == null) {
-            mStkService[slotId] = CatService.getInstance(slotId);
-            if (mStkService[slotId] == null) {
-                // CatService is disposed when the relevant SIM is removed or disabled.
-                // StkAppService can also be stopped when the absent state is notified,
-                // so this situation can happen.
-                CatLog.d(LOG_TAG, "No response is sent back to the missing CatService.");
-                return;
-            }
+        if (getStkService(slotId) == null) {
+            // CatService is disposed when the relevant SIM is removed or disabled.
+            // StkAppService can also be stopped when the absent state is notified,
+            // so this situation can happen.
+            CatLog.d(LOG_TAG, "No response is sent back to the missing CatService.");
+            return;
         }
 
         CatResponseMessage resMsg = new CatResponseMessage(mStkContext[slotId].mCurrentCmd);
 
         // set result code
-        boolean helpRequired = args.getBoolean(HELP, false);
+        boolean helpRequired = response.help;
         boolean confirmed    = false;
 
-        switch(args.getInt(RES_ID)) {
+        switch(response.resId) {
         case RES_ID_MENU_SELECTION:
             CatLog.d(LOG_TAG, "MENU_SELECTION=" + mStkContext[slotId].
                     mCurrentMenuCmd.getCmdType());
-            int menuSelection = args.getInt(MENU_SELECTION);
+            int menuSelection = response.menuSelection;
             switch(mStkContext[slotId].mCurrentMenuCmd.getCmdType()) {
             case SET_UP_MENU:
                 mStkContext[slotId].mIsSessionFromUser = true;
@@ -1327,7 +1855,7 @@ public class StkAppService extends Service implements Runnable {
             break;
         case RES_ID_INPUT:
             CatLog.d(LOG_TAG, "RES_ID_INPUT");
-            String input = args.getString(INPUT);
+            String input = response.input;
             if (input != null && (null != mStkContext[slotId].mCurrentCmd.geInput()) &&
                     (mStkContext[slotId].mCurrentCmd.geInput().yesNo)) {
                 boolean yesNoSelection = input
@@ -1345,7 +1873,7 @@ public class StkAppService extends Service implements Runnable {
             break;
         case RES_ID_CONFIRM:
             CatLog.d(LOG_TAG, "RES_ID_CONFIRM");
-            confirmed = args.getBoolean(CONFIRMATION);
+            confirmed = response.confirmed;
             switch (mStkContext[slotId].mCurrentCmd.getCmdType()) {
             case DISPLAY_TEXT:
                 if (confirmed) {
@@ -1400,7 +1928,7 @@ public class StkAppService extends Service implements Runnable {
             }
             break;
         case RES_ID_CHOICE:
-            int choice = args.getInt(CHOICE);
+            int choice = response.choice;
             CatLog.d(LOG_TAG, "User Choice=" + choice);
             switch (choice) {
                 case YES:
@@ -1430,7 +1958,7 @@ public class StkAppService extends Service implements Runnable {
             return;
         }
 
-        switch (args.getInt(RES_ID)) {
+        switch (response.resId) {
             case RES_ID_MENU_SELECTION:
             case RES_ID_INPUT:
             case RES_ID_CONFIRM:
@@ -1453,7 +1981,8 @@ public class StkAppService extends Service implements Runnable {
             CatLog.d(LOG_TAG, "handleCmdResponse- cmdName[" +
                     mStkContext[slotId].mCurrentCmd.getCmdType().name() + "]");
         }
-        mStkService[slotId].onCmdResponse(resMsg);
+        StkCmdTracer.getInstance().onResponded(slotId, mStkContext[slotId].mCurrentCmd);
+        sendCmdResponse(resMsg, slotId);
     }
 
     /**
@@ -1496,12 +2025,14 @@ public class StkAppService extends Service implements Runnable {
                 }
             }
             CatLog.d(LOG_TAG, "finish pending activity.");
+            publishUiStates(slotId);
             activity.finish();
             mStkContext[slotId].mActivityInstance = null;
         }
         if (dialog != null) {
             CatLog.d(LOG_TAG, "finish pending dialog.");
             mStkContext[slotId].mIsDialogPending = true;
+            publishUiStates(slotId);
             dialog.finish();
             mStkContext[slotId].mDialogInstance = null;
         }
@@ -1550,6 +2081,8 @@ public class StkAppService extends Service implements Runnable {
         // Close the dialog displayed for DISPLAY TEXT command with an immediate response object
         // before new dialog is displayed.
         if (SubscriptionManager.isValidSlotIndex(slotId)) {
+            // The activity reads the state of the slot before the handler finishes the turn.
+            publishUiStates(slotId);
             Activity dialog = mStkContext[slotId].getImmediateDialogInstance();
             if (dialog != null) {
                 CatLog.d(LOG_TAG, "finish dialog for immediate response.");
@@ -1617,6 +2150,10 @@ public class StkAppService extends Service implements Runnable {
 
         if (input != null) {
             notifyUserIfNecessary(slotId, input.text);
+            if (input.digitOnly) {
+                // StkInputActivity reads the carrier config on its main thread.
+                StkCarrierConfigCache.getInstance(getApplicationContext()).prefetch(slotId);
+            }
         }
         startActivity(newIntent);
         startToObserveHomeKeyEvent(slotId);
@@ -1654,7 +2191,7 @@ public class StkAppService extends Service implements Runnable {
     }
 
     private void notifyUserIfNecessary(int slotId, String message) {
-        createAllChannels();
+        mNotificationHelper.createChannelsIfNecessary();
 
         if (mStkContext[slotId].mNoResponseFromUser) {
             // No response from user was observed in the current session.
@@ -1663,9 +2200,7 @@ public class StkAppService extends Service implements Runnable {
             return;
         }
 
-        PowerManager pm = (PowerManager) getSystemService(POWER_SERVICE);
-
-        if (((KeyguardManager) getSystemService(Context.KEYGUARD_SERVICE)).isKeyguardLocked()) {
+        if (mScreenWaker.isKeyguardLocked()) {
             // Display the notification on the keyguard screen
             // if user cannot see the message from the card right now because of it.
             // The notification can be dismissed if user removed the keyguard screen.
@@ -1673,15 +2208,16 @@ public class StkAppService extends Service implements Runnable {
         }
 
         // Turn on the screen.
-        PowerManager.WakeLock wakelock = pm.newWakeLock(PowerManager.FULL_WAKE_LOCK
-                | PowerManager.ACQUIRE_CAUSES_WAKEUP | PowerManager.ON_AFTER_RELEASE, LOG_TAG);
-        wakelock.acquire();
-        wakelock.release();
+        mScreenWaker.wakeUp(slotId);
     }
 
     private void launchNotificationOnKeyguard(int slotId, String message) {
-        Notification.Builder builder = new Notification.Builder(this, STK_NOTIFICATION_CHANNEL_ID);
-        setNotificationTitle(slotId, builder);
+        Notification.Builder builder = new Notification.Builder(this,
+                StkNotificationHelper.CHANNEL_ID);
+        String title = getNotificationTitle(slotId);
+        if (title != null) {
+            builder.setContentTitle(title);
+        }
 
         builder.setStyle(new Notification.BigTextStyle(builder).bigText(message));
         builder.setContentText(message);
@@ -1717,45 +2253,57 @@ public class StkAppService extends Service implements Runnable {
     }
 
     private void replaceEventList(int slotId) {
-        if (mStkContext[slotId].mSetupEventListSettings != null) {
-            for (int current : mStkContext[slotId].mSetupEventListSettings.eventList) {
-                if (current != INVALID_SETUP_EVENT) {
-                    // Cancel the event notification if it is not listed in the new event list.
-                    if ((mStkContext[slotId].mCurrentCmd.getSetEventList() == null)
-                            || !findEvent(current, mStkContext[slotId].mCurrentCmd
-                            .getSetEventList().eventList)) {
-                        unregisterEvent(current, slotId);
-                    }
-                }
+        int mask = 0;
+        if (mStkContext[slotId].mCurrentCmd.getSetEventList() != null) {
+            for (int event : mStkContext[slotId].mCurrentCmd.getSetEventList().eventList) {
+                mask |= getSetupEventBit(event);
             }
         }
-        mStkContext[slotId].mSetupEventListSettings
-                = mStkContext[slotId].mCurrentCmd.getSetEventList();
         mStkContext[slotId].mCurrentSetupEventCmd = mStkContext[slotId].mCurrentCmd;
         mStkContext[slotId].mCurrentCmd = mStkContext[slotId].mMainCmd;
-        registerEvents(slotId);
+        setSetupEventMask(mask, slotId);
+        if ((mask & getSetupEventBit(USER_ACTIVITY_EVENT)) != 0) {
+            armUserActivityNotification();
+        }
     }
 
-    private boolean findEvent(int event, int[] eventList) {
-        for (int content : eventList) {
-            if (content == event) return true;
-        }
-        return false;
+    /*
+     * Returns the bit of the specified event in the event mask, or 0 if it is not supported.
+     */
+    private static int getSetupEventBit(int event) {
+        return (event >= 0 && event < Integer.SIZE) ? (1 << event) : 0;
     }
 
-    private void unregisterEvent(int event, int slotId) {
-        for (int slot = 0; slot < mSimCount; slot++) {
-            if (slot != slotId) {
-                if (mStkContext[slot].mSetupEventListSettings != null) {
-                    if (findEvent(event, mStkContext[slot].mSetupEventListSettings.eventList)) {
-                        // The specified event shall never be canceled
-                        // if there is any other SIM card which requests the event.
-                        return;
-                    }
-                }
+    private synchronized boolean hasSetupEvent(int event, int slotId) {
+        return (mStkContext[slotId].mSetupEventMask & getSetupEventBit(event)) != 0;
+    }
+
+    /*
+     * Replaces the events requested by the specified slot. The listener of an event is
+     * attached when the first slot requests it and detached when no slot requests it.
+     */
+    private synchronized void setSetupEventMask(int mask, int slotId) {
+        int oldMask = mStkContext[slotId].mSetupEventMask;
+        mStkContext[slotId].mSetupEventMask = mask;
+        int removed = oldMask & ~mask;
+        while (removed != 0) {
+            int event = Integer.numberOfTrailingZeros(removed);
+            removed &= removed - 1;
+            if (--mSetupEventRefCounts[event] == 0) {
+                unregisterEvent(event, slotId);
             }
         }
+        int added = mask & ~oldMask;
+        while (added != 0) {
+            int event = Integer.numberOfTrailingZeros(added);
+            added &= added - 1;
+            if (mSetupEventRefCounts[event]++ == 0) {
+                registerEvent(event);
+            }
+        }
+    }
 
+    private void unregisterEvent(int event, int slotId) {
         switch (event) {
             case USER_ACTIVITY_EVENT:
                 unregisterUserActivityReceiver();
@@ -1771,24 +2319,19 @@ public class StkAppService extends Service implements Runnable {
         }
     }
 
-    private void registerEvents(int slotId) {
-        if (mStkContext[slotId].mSetupEventListSettings == null) {
-            return;
-        }
-        for (int event : mStkContext[slotId].mSetupEventListSettings.eventList) {
-            switch (event) {
-                case USER_ACTIVITY_EVENT:
-                    registerUserActivityReceiver();
-                    break;
-                case IDLE_SCREEN_AVAILABLE_EVENT:
-                    registerHomeVisibilityObserver();
-                    break;
-                case LANGUAGE_SELECTION_EVENT:
-                    registerLocaleChangeReceiver();
-                    break;
-                default:
-                    break;
-            }
+    private void registerEvent(int event) {
+        switch (event) {
+            case USER_ACTIVITY_EVENT:
+                registerUserActivityReceiver();
+                break;
+            case IDLE_SCREEN_AVAILABLE_EVENT:
+                registerHomeVisibilityObserver();
+                break;
+            case LANGUAGE_SELECTION_EVENT:
+                registerLocaleChangeReceiver();
+                break;
+            default:
+                break;
         }
     }
 
@@ -1798,24 +2341,12 @@ public class StkAppService extends Service implements Runnable {
                 @Override public void onReceive(Context context, Intent intent) {
                     if (TelephonyIntents.ACTION_USER_ACTIVITY_NOTIFICATION.equals(
                             intent.getAction())) {
-                        Message message = mServiceHandler.obtainMessage(OP_USER_ACTIVITY);
-                        mServiceHandler.sendMessage(message);
-                        unregisterUserActivityReceiver();
+                        onUserActivity();
                     }
                 }
             };
             registerReceiver(mUserActivityReceiver, new IntentFilter(
                     TelephonyIntents.ACTION_USER_ACTIVITY_NOTIFICATION));
-            try {
-                ITelephony telephony = ITelephony.Stub.asInterface(
-                        TelephonyFrameworkInitializer
-                                .getTelephonyServiceManager()
-                                .getTelephonyServiceRegisterer()
-                                .get());
-                telephony.requestUserActivityNotification();
-            } catch (RemoteException e) {
-                CatLog.e(LOG_TAG, "failed to init WindowManager:" + e);
-            }
         }
     }
 
@@ -1824,27 +2355,58 @@ public class StkAppService extends Service implements Runnable {
             unregisterReceiver(mUserActivityReceiver);
             mUserActivityReceiver = null;
         }
+        mIsUserActivityArmed = false;
+    }
+
+    /*
+     * Requests the notification of the next user activity, unless it has already been done.
+     */
+    private synchronized void armUserActivityNotification() {
+        if (mUserActivityReceiver == null || mIsUserActivityArmed) {
+            return;
+        }
+        mIsUserActivityArmed = true;
+        try {
+            ITelephony telephony = ITelephony.Stub.asInterface(
+                    TelephonyFrameworkInitializer
+                            .getTelephonyServiceManager()
+                            .getTelephonyServiceRegisterer()
+                            .get());
+            telephony.requestUserActivityNotification();
+        } catch (RemoteException e) {
+            CatLog.e(LOG_TAG, "failed to init WindowManager:" + e);
+        }
+    }
+
+    /*
+     * Only the first user activity after arming is downloaded to the card, and the others
+     * are coalesced until the next SET UP EVENT LIST command arms the notification again.
+     */
+    private synchronized void onUserActivity() {
+        if (!mIsUserActivityArmed) {
+            mUserActivityCoalescedCount++;
+            return;
+        }
+        mIsUserActivityArmed = false;
+        removeMessagesFromAllSlots(OP_USER_ACTIVITY);
+        sendMessageToAllSlots(OP_USER_ACTIVITY, null);
     }
 
     private synchronized void registerHomeVisibilityObserver() {
-        if (mHomeVisibilityListener == null) {
-            mHomeVisibilityListener = new HomeVisibilityListener() {
-                @Override
-                public void onHomeVisibilityChanged(boolean isHomeActivityVisible) {
-                    if (isHomeActivityVisible) {
-                        Message message = mServiceHandler.obtainMessage(OP_IDLE_SCREEN);
-                        mServiceHandler.sendMessage(message);
-                        unregisterHomeVisibilityObserver();
-                    }
-                }
-            };
-            ActivityManager am = (ActivityManager) getSystemService(ACTIVITY_SERVICE);
-            am.addHomeVisibilityListener(Runnable::run, mHomeVisibilityListener);
+        if (!mIsObservingHomeVisibility) {
+            mIsObservingHomeVisibility = true;
+            mForegroundTracker.startTrackingHome();
             CatLog.d(LOG_TAG, "Started to observe the foreground activity");
         }
     }
 
-    private void unregisterHomeVisibilityObserver(AppInterface.CommandType command, int slotId) {
+    private synchronized void unregisterHomeVisibilityObserver(AppInterface.CommandType command,
+            int slotId) {
+        if (mSetupEventRefCounts[IDLE_SCREEN_AVAILABLE_EVENT] > 0) {
+            // Keep the process observer registered
+            // as there is a SIM card which still want IDLE SCREEN AVAILABLE event.
+            return;
+        }
         // Check if there is any pending command which still needs the process observer
         // except for the current command and slot.
         for (int slot = 0; slot < mSimCount; slot++) {
@@ -1856,27 +2418,25 @@ public class StkAppService extends Service implements Runnable {
                     return;
                 }
             }
-            if (command != AppInterface.CommandType.SET_UP_EVENT_LIST || slot != slotId) {
-                if (mStkContext[slot].mSetupEventListSettings != null) {
-                    if (findEvent(IDLE_SCREEN_AVAILABLE_EVENT,
-                                mStkContext[slot].mSetupEventListSettings.eventList)) {
-                        // Keep the process observer registered
-                        // as there is a SIM card which still want IDLE SCREEN AVAILABLE event.
-                        return;
-                    }
-                }
-            }
         }
         unregisterHomeVisibilityObserver();
     }
 
-    private synchronized void unregisterHomeVisibilityObserver() {
-        if (mHomeVisibilityListener != null) {
-            ActivityManager am = (ActivityManager) getSystemService(ACTIVITY_SERVICE);
-            am.removeHomeVisibilityListener(mHomeVisibilityListener);
+    private void unregisterHomeVisibilityObserver() {
+        stopObservingHomeVisibility();
+    }
+
+    /*
+     * Returns true if the home visibility was being observed.
+     */
+    private synchronized boolean stopObservingHomeVisibility() {
+        if (mIsObservingHomeVisibility) {
             CatLog.d(LOG_TAG, "Stopped to observe the foreground activity");
-            mHomeVisibilityListener = null;
+            mIsObservingHomeVisibility = false;
+            mForegroundTracker.stopTrackingHome();
+            return true;
         }
+        return false;
     }
 
     private synchronized void registerLocaleChangeReceiver() {
@@ -1884,8 +2444,7 @@ public class StkAppService extends Service implements Runnable {
             mLocaleChangeReceiver = new BroadcastReceiver() {
                 @Override public void onReceive(Context context, Intent intent) {
                     if (Intent.ACTION_LOCALE_CHANGED.equals(intent.getAction())) {
-                        Message message = mServiceHandler.obtainMessage(OP_LOCALE_CHANGED);
-                        mServiceHandler.sendMessage(message);
+                        sendMessageToAllSlots(OP_LOCALE_CHANGED, null);
                     }
                 }
             };
@@ -1913,84 +2472,50 @@ public class StkAppService extends Service implements Runnable {
         resMsg.setResultCode(ResultCode.OK);
         resMsg.setEventDownload(event, addedInfo);
 
-        mStkService[slotId].onCmdResponse(resMsg);
+        sendCmdResponse(resMsg, slotId);
     }
 
     private void checkForSetupEvent(int event, Bundle args, int slotId) {
-        boolean eventPresent = false;
         byte[] addedInfo = null;
         CatLog.d(LOG_TAG, "Event :" + event);
 
-        if (mStkContext[slotId].mSetupEventListSettings != null) {
-            /* Checks if the event is present in the EventList updated by last
-             * SetupEventList Proactive Command */
-            for (int i : mStkContext[slotId].mSetupEventListSettings.eventList) {
-                 if (event == i) {
-                     eventPresent =  true;
-                     break;
-                 }
-            }
-
+        /* Checks if the event is present in the EventList updated by last
+         * SetupEventList Proactive Command */
+        if (hasSetupEvent(event, slotId)) {
             /* If Event is present send the response to ICC */
-            if (eventPresent == true) {
-                CatLog.d(LOG_TAG, " Event " + event + "exists in the EventList");
-
-                switch (event) {
-                    case USER_ACTIVITY_EVENT:
-                    case IDLE_SCREEN_AVAILABLE_EVENT:
-                        sendSetUpEventResponse(event, addedInfo, slotId);
-                        removeSetUpEvent(event, slotId);
-                        break;
-                    case LANGUAGE_SELECTION_EVENT:
-                        String language =  mContext
-                                .getResources().getConfiguration().locale.getLanguage();
-                        CatLog.d(LOG_TAG, "language: " + language);
-                        // Each language code is a pair of alpha-numeric characters.
-                        // Each alpha-numeric character shall be coded on one byte
-                        // using the SMS default 7-bit coded alphabet
-                        addedInfo = GsmAlphabet.stringToGsm8BitPacked(language);
-                        sendSetUpEventResponse(event, addedInfo, slotId);
-                        break;
-                    default:
-                        break;
-                }
-            } else {
-                CatLog.e(LOG_TAG, " Event does not exist in the EventList");
+            CatLog.d(LOG_TAG, " Event " + event + "exists in the EventList");
+
+            switch (event) {
+                case USER_ACTIVITY_EVENT:
+                case IDLE_SCREEN_AVAILABLE_EVENT:
+                    sendSetUpEventResponse(event, addedInfo, slotId);
+                    removeSetUpEvent(event, slotId);
+                    break;
+                case LANGUAGE_SELECTION_EVENT:
+                    String language =  mContext
+                            .getResources().getConfiguration().locale.getLanguage();
+                    CatLog.d(LOG_TAG, "language: " + language);
+                    // Each language code is a pair of alpha-numeric characters.
+                    // Each alpha-numeric character shall be coded on one byte
+                    // using the SMS default 7-bit coded alphabet
+                    addedInfo = GsmAlphabet.stringToGsm8BitPacked(language);
+                    sendSetUpEventResponse(event, addedInfo, slotId);
+                    break;
+                default:
+                    break;
             }
         } else {
-            CatLog.e(LOG_TAG, "SetupEventList is not received. Ignoring the event: " + event);
+            CatLog.e(LOG_TAG, " Event does not exist in the EventList");
         }
     }
 
-    private void removeSetUpEvent(int event, int slotId) {
+    /*
+     * Removes the event which has already been sent to the card. The listener of the event
+     * is detached if no other slot requests it.
+     */
+    private synchronized void removeSetUpEvent(int event, int slotId) {
         CatLog.d(LOG_TAG, "Remove Event :" + event);
-
-        if (mStkContext[slotId].mSetupEventListSettings != null) {
-            /*
-             * Make new  Eventlist without the event
-             */
-            for (int i = 0; i < mStkContext[slotId].mSetupEventListSettings.eventList.length; i++) {
-                if (event == mStkContext[slotId].mSetupEventListSettings.eventList[i]) {
-                    mStkContext[slotId].mSetupEventListSettings.eventList[i] = INVALID_SETUP_EVENT;
-
-                    switch (event) {
-                        case USER_ACTIVITY_EVENT:
-                            // The broadcast receiver can be unregistered
-                            // as the event has already been sent to the card.
-                            unregisterUserActivityReceiver();
-                            break;
-                        case IDLE_SCREEN_AVAILABLE_EVENT:
-                            // The process observer can be unregistered
-                            // as the idle screen has already been available.
-                            unregisterHomeVisibilityObserver();
-                            break;
-                        default:
-                            break;
-                    }
-                    break;
-                }
-            }
-        }
+        setSetupEventMask(mStkContext[slotId].mSetupEventMask & ~getSetupEventBit(event), slotId);
     }
 
     private void launchEventMessage(int slotId) {
@@ -2052,7 +2577,7 @@ public class StkAppService extends Service implements Runnable {
         startActivity(newIntent);
     }
 
-    private void launchBrowser(BrowserSettings settings) {
+    private void launchBrowser(BrowserSettings settings, int slotId) {
         if (settings == null) {
             return;
         }
@@ -2098,15 +2623,62 @@ public class StkAppService extends Service implements Runnable {
         startActivity(intent);
         // a small delay, let the browser start, before processing the next command.
         // this is good for scenarios where a related DISPLAY TEXT command is
-        // followed immediately.
-        try {
-            Thread.sleep(3000);
-        } catch (InterruptedException e) {}
+        // followed immediately. Only the messages of this slot are held.
+        mStkContext[slotId].mBrowserLaunchTime = SystemClock.uptimeMillis();
+        if (!mStkContext[slotId].mIsBrowserLaunching) {
+            // The home screen leaving the foreground tells that the browser has been launched.
+            mForegroundTracker.startTrackingHome();
+        }
+        mStkContext[slotId].mIsBrowserLaunching = true;
+        // The messages are resumed as soon as the foreground is changed, or on the timeout.
+        Message msg = getHandler(slotId).obtainMessage(OP_CHECK_BROWSER_LAUNCH, 0, slotId,
+                mStkContext[slotId]);
+        getHandler(slotId).sendMessageDelayed(msg, BROWSER_LAUNCH_TIMEOUT_MS);
+    }
+
+    /*
+     * Notifies the slots waiting for the browser that the foreground has been changed.
+     */
+    private void notifyBrowserLaunchProgress() {
+        for (int slot = 0; slot < mSimCount; slot++) {
+            StkContext context = mStkContext[slot];
+            if (context != null && context.mIsBrowserLaunching) {
+                getHandler(slot).obtainMessage(OP_CHECK_BROWSER_LAUNCH, 1, slot, context)
+                        .sendToTarget();
+            }
+        }
+    }
+
+    /*
+     * Resumes the messages of the slot once the foreground is changed after the browser
+     * is launched, or the timeout expires.
+     */
+    private void checkBrowserLaunch(int slotId, boolean isForegroundChanged) {
+        StkContext context = mStkContext[slotId];
+        if (!context.mIsBrowserLaunching) {
+            return;
+        }
+        long elapsed = SystemClock.uptimeMillis() - context.mBrowserLaunchTime;
+        if (!isForegroundChanged && elapsed < BROWSER_LAUNCH_TIMEOUT_MS) {
+            // The timeout of the previous launch.
+            return;
+        }
+
+        CatLog.d(LOG_TAG, "Browser launched, foreground changed: " + isForegroundChanged
+                + ", elapsed: " + elapsed + "ms, slotId: " + slotId);
+        context.mIsBrowserLaunching = false;
+        mForegroundTracker.stopTrackingHome();
+        // The handler can be shared with other slots.
+        getHandler(slotId).removeMessages(OP_CHECK_BROWSER_LAUNCH, context);
+        if (context.mCmdsQ.size() != 0) {
+            context.mCmdInProgress = true;
+            callDelayedMsg(slotId);
+        }
     }
 
     private void cancelIdleText(int slotId) {
         unregisterHomeVisibilityObserver(AppInterface.CommandType.SET_UP_IDLE_MODE_TEXT, slotId);
-        mNotificationManager.cancel(getNotificationId(slotId));
+        mNotificationHelper.cancelIdleText(slotId, getNotificationId(slotId));
         mStkContext[slotId].mIdleModeTextCmd = null;
         mStkContext[slotId].mIdleModeTextVisible = false;
     }
@@ -2119,48 +2691,27 @@ public class StkAppService extends Service implements Runnable {
                     + "] iconSelfExplanatory[" + msg.iconSelfExplanatory
                     + "] icon[" + msg.icon + "], sim id: " + slotId);
             CatLog.d(LOG_TAG, "Add IdleMode text");
-            PendingIntent pendingIntent = PendingIntent.getService(mContext, 0,
-                    new Intent(mContext, StkAppService.class), PendingIntent.FLAG_IMMUTABLE);
-            createAllChannels();
-            final Notification.Builder notificationBuilder = new Notification.Builder(
-                    StkAppService.this, STK_NOTIFICATION_CHANNEL_ID);
-            setNotificationTitle(slotId, notificationBuilder);
-            notificationBuilder
-                    .setSmallIcon(R.drawable.stat_notify_sim_toolkit);
-            notificationBuilder.setContentIntent(pendingIntent);
-            notificationBuilder.setOngoing(true);
-            notificationBuilder.setOnlyAlertOnce(true);
-            // Set text and icon for the status bar and notification body.
-            if (mStkContext[slotId].mIdleModeTextCmd.hasIconLoadFailed() ||
-                    !msg.iconSelfExplanatory) {
-                notificationBuilder.setContentText(msg.text);
-                notificationBuilder.setTicker(msg.text);
-                notificationBuilder.setStyle(new Notification.BigTextStyle(notificationBuilder)
-                        .bigText(msg.text));
-            }
-            if (msg.icon != null) {
-                notificationBuilder.setLargeIcon(msg.icon);
-            } else {
-                Bitmap bitmapIcon = BitmapFactory.decodeResource(StkAppService.this
-                    .getResources().getSystem(),
-                    R.drawable.stat_notify_sim_toolkit);
-                notificationBuilder.setLargeIcon(bitmapIcon);
-            }
-            notificationBuilder.setColor(mContext.getResources().getColor(
-                    com.android.internal.R.color.system_notification_accent_color));
-            mNotificationManager.notify(getNotificationId(slotId), notificationBuilder.build());
+            // Set text for the status bar and notification body if the icon is not shown alone.
+            boolean showText = mStkContext[slotId].mIdleModeTextCmd.hasIconLoadFailed()
+                    || !msg.iconSelfExplanatory;
+            mNotificationHelper.showIdleText(slotId, getNotificationId(slotId),
+                    getNotificationTitle(slotId), msg.text, showText, msg.icon);
             mStkContext[slotId].mIdleModeTextVisible = true;
         }
     }
 
-    private void setNotificationTitle(int slotId, Notification.Builder builder) {
+    /*
+     * Returns the content title of the notification for the specified slot,
+     * or null if no content title is necessary.
+     */
+    private String getNotificationTitle(int slotId) {
         Menu menu = getMainMenu(slotId);
         if (menu == null || TextUtils.isEmpty(menu.title)
                 || TextUtils.equals(menu.title, getResources().getString(R.string.app_name))) {
             // No need to set a content title in the content area if no title (alpha identifier
             // of SET-UP MENU command) is available for the specified slot or the title is same
             // as the application label.
-            return;
+            return null;
         }
 
         for (int index = 0; index < mSimCount; index++) {
@@ -2170,27 +2721,11 @@ public class StkAppService extends Service implements Runnable {
                     // Set the title (alpha identifier of SET-UP MENU command) as the content title
                     // to differentiate it from other main menu with different alpha identifier
                     // (including null) is available.
-                    builder.setContentTitle(menu.title);
-                    return;
+                    return menu.title;
                 }
             }
         }
-    }
-
-    /** Creates the notification channel and registers it with NotificationManager.
-     * If a channel with the same ID is already registered, NotificationManager will
-     * ignore this call.
-     */
-    private void createAllChannels() {
-        NotificationChannel notificationChannel = new NotificationChannel(
-                STK_NOTIFICATION_CHANNEL_ID,
-                getResources().getString(R.string.stk_channel_name),
-                NotificationManager.IMPORTANCE_DEFAULT);
-
-        notificationChannel.enableVibration(true);
-        notificationChannel.setVibrationPattern(VIBRATION_PATTERN);
-
-        mNotificationManager.createNotificationChannel(notificationChannel);
+        return null;
     }
 
     private void launchToneDialog(int slotId) {
@@ -2260,19 +2795,21 @@ public class StkAppService extends Service implements Runnable {
             return;
         }
 
-        mVibrator = (Vibrator)getSystemService(VIBRATOR_SERVICE);
-        mTonePlayer = new TonePlayer();
-        mTonePlayer.play(settings.tone);
+        StkContext context = mStkContext[slotId];
+        stopTone(context);
+        context.mVibrator = (Vibrator) getSystemService(VIBRATOR_SERVICE);
+        context.mTonePlayer = new TonePlayer();
+        context.mTonePlayer.play(settings.tone);
         int timeout = StkApp.calculateDurationInMilis(settings.duration);
         if (timeout == 0) {
             timeout = StkApp.TONE_DEFAULT_TIMEOUT;
         }
 
-        Message msg = mServiceHandler.obtainMessage(OP_STOP_TONE, 0, slotId,
+        Message msg = getHandler(slotId).obtainMessage(OP_STOP_TONE, 0, slotId,
                 (showUserInfo ? PLAY_TONE_WITH_DIALOG : PLAY_TONE_ONLY));
-        mServiceHandler.sendMessageDelayed(msg, timeout);
+        getHandler(slotId).sendMessageDelayed(msg, timeout);
         if (settings.vibrate) {
-            mVibrator.vibrate(timeout);
+            context.mVibrator.vibrate(timeout);
         }
 
         // Start Tone dialog Activity to show user the information.
@@ -2311,22 +2848,27 @@ public class StkAppService extends Service implements Runnable {
 
         sendResponse(resId, slotId, true);
 
-        mServiceHandler.removeMessages(OP_STOP_TONE);
-        mServiceHandler.removeMessages(OP_STOP_TONE_USER);
+        getHandler(slotId).removeMessages(OP_STOP_TONE);
+        getHandler(slotId).removeMessages(OP_STOP_TONE_USER);
 
-        if (mTonePlayer != null) {
-            mTonePlayer.stop();
-            mTonePlayer.release();
-            mTonePlayer = null;
+        stopTone(mStkContext[slotId]);
+    }
+
+    private void stopTone(StkContext context) {
+        if (context.mTonePlayer != null) {
+            context.mTonePlayer.stop();
+            context.mTonePlayer.release();
+            context.mTonePlayer = null;
         }
-        if (mVibrator != null) {
-            mVibrator.cancel();
-            mVibrator = null;
+        if (context.mVibrator != null) {
+            context.mVibrator.cancel();
+            context.mVibrator = null;
         }
     }
 
-    boolean isNoTonePlaying() {
-        return mTonePlayer == null ? true : false;
+    boolean isNoTonePlaying(int slotId) {
+        StkContext context = getStkContext(slotId);
+        return context == null || context.mTonePlayer == null;
     }
 
     private void launchOpenChannelDialog(final int slotId) {
@@ -2341,7 +2883,9 @@ public class StkAppService extends Service implements Runnable {
             msg.text = getResources().getString(R.string.default_open_channel_msg);
         }
 
-        mAlertDialog = new AlertDialog.Builder(mContext)
+        StkContext context = mStkContext[slotId];
+        dismissOpenChannelDialog(context);
+        final AlertDialog alertDialog = new AlertDialog.Builder(mContext)
                     .setIconAttribute(android.R.attr.alertDialogIcon)
                     .setTitle(msg.title)
                     .setMessage(msg.text)
@@ -2349,30 +2893,34 @@ public class StkAppService extends Service implements Runnable {
                     .setPositiveButton(getResources().getString(R.string.stk_dialog_accept),
                                        new DialogInterface.OnClickListener() {
                         public void onClick(DialogInterface dialog, int which) {
-                            Bundle args = new Bundle();
-                            args.putInt(RES_ID, RES_ID_CHOICE);
-                            args.putInt(CHOICE, YES);
-                            sendResponse(args, slotId);
+                            sendResponse(StkResponse.ofChoice(YES), slotId);
                         }
                     })
                     .setNegativeButton(getResources().getString(R.string.stk_dialog_reject),
                                        new DialogInterface.OnClickListener() {
                         public void onClick(DialogInterface dialog, int which) {
-                            Bundle args = new Bundle();
-                            args.putInt(RES_ID, RES_ID_CHOICE);
-                            args.putInt(CHOICE, NO);
-                            sendResponse(args, slotId);
+                            sendResponse(StkResponse.ofChoice(NO), slotId);
                         }
                     })
                     .create();
 
-        mAlertDialog.getWindow().setType(WindowManager.LayoutParams.TYPE_SYSTEM_ALERT);
+        alertDialog.getWindow().setType(WindowManager.LayoutParams.TYPE_SYSTEM_ALERT);
         if (!mContext.getResources().getBoolean(
                 R.bool.config_sf_slowBlur)) {
-            mAlertDialog.getWindow().addFlags(WindowManager.LayoutParams.FLAG_BLUR_BEHIND);
+            alertDialog.getWindow().addFlags(WindowManager.LayoutParams.FLAG_BLUR_BEHIND);
         }
 
-        mAlertDialog.show();
+        alertDialog.show();
+        context.mAlertDialog = alertDialog;
+    }
+
+    private void dismissOpenChannelDialog(StkContext context) {
+        if (context != null && context.mAlertDialog != null) {
+            if (context.mAlertDialog.isShowing()) {
+                context.mAlertDialog.dismiss();
+            }
+            context.mAlertDialog = null;
+        }
     }
 
     private void launchTransientEventMessage(int slotId) {
@@ -2441,9 +2989,44 @@ public class StkAppService extends Service implements Runnable {
         return false;
     }
 
+    /*
+     * Returns true if both menus have the same content to be displayed.
+     */
+    static boolean isSameMenu(Menu a, Menu b) {
+        if (a == null || b == null || a.items == null || b.items == null) {
+            return false;
+        }
+        if (!TextUtils.equals(a.title, b.title)
+                || !isSameBitmap(a.titleIcon, b.titleIcon)
+                || a.titleIconSelfExplanatory != b.titleIconSelfExplanatory
+                || a.itemsIconSelfExplanatory != b.itemsIconSelfExplanatory
+                || a.defaultItem != b.defaultItem
+                || a.softKeyPreferred != b.softKeyPreferred
+                || a.helpAvailable != b.helpAvailable
+                || a.items.size() != b.items.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.items.size(); i++) {
+            Item itemA = a.items.get(i);
+            Item itemB = b.items.get(i);
+            if (itemA == null || itemB == null) {
+                return false;
+            }
+            if (itemA.id != itemB.id || !TextUtils.equals(itemA.text, itemB.text)
+                    || !isSameBitmap(itemA.icon, itemB.icon)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSameBitmap(Bitmap a, Bitmap b) {
+        return (a == b) || (a != null && b != null && a.sameAs(b));
+    }
+
     private boolean uninstallIfUnnecessary() {
         for (int slot = 0; slot < mSimCount; slot++) {
-            if (mStkContext[slot].mMainCmd != null) {
+            if (getMainMenu(slot) != null) {
                 return false;
             }
         }
@@ -2452,9 +3035,65 @@ public class StkAppService extends Service implements Runnable {
         return true;
     }
 
-    synchronized StkContext getStkContext(int slotId) {
-        if (slotId >= 0 && slotId < mSimCount) {
-            return mStkContext[slotId];
+    /**
+     * Registers the listener of the session end event of the specified slot.
+     * The listener is held weakly, so the caller must keep a reference to it.
+     */
+    void registerSessionListener(int slotId, SessionListener listener) {
+        synchronized (mSessionListeners) {
+            ArrayList<WeakReference<SessionListener>> listeners = mSessionListeners.get(slotId);
+            if (listeners == null) {
+                listeners = new ArrayList<>();
+                mSessionListeners.put(slotId, listeners);
+            }
+            listeners.removeIf(ref -> ref.get() == null || ref.get() == listener);
+            listeners.add(new WeakReference<>(listener));
+        }
+    }
+
+    void unregisterSessionListener(int slotId, SessionListener listener) {
+        synchronized (mSessionListeners) {
+            ArrayList<WeakReference<SessionListener>> listeners = mSessionListeners.get(slotId);
+            if (listeners != null) {
+                listeners.removeIf(ref -> ref.get() == null || ref.get() == listener);
+            }
+        }
+    }
+
+    private void notifySessionEnded(int slotId) {
+        final ArrayList<SessionListener> targets = new ArrayList<>();
+        synchronized (mSessionListeners) {
+            ArrayList<WeakReference<SessionListener>> listeners = mSessionListeners.get(slotId);
+            if (listeners == null) {
+                return;
+            }
+            listeners.removeIf(ref -> ref.get() == null);
+            for (WeakReference<SessionListener> ref : listeners) {
+                SessionListener listener = ref.get();
+                if (listener != null) {
+                    targets.add(listener);
+                }
+            }
+        }
+        if (!targets.isEmpty()) {
+            mMainHandler.post(() -> {
+                for (SessionListener listener : targets) {
+                    listener.onSessionEnded(slotId);
+                }
+            });
+        }
+    }
+
+    /*
+     * Package api used by the UI components. It does not lock the service, as the context
+     * of a slot is replaced only when the multi-SIM configuration is changed.
+     */
+    StkContext getStkContext(int slotId) {
+        // The count is read first, so that the contexts of the slots below it are visible.
+        int simCount = mSimCount;
+        StkContext[] contexts = mStkContext;
+        if (contexts != null && slotId >= 0 && slotId < simCount && slotId < contexts.length) {
+            return contexts[slotId];
         } else {
             CatLog.d(LOG_TAG, "invalid slotId: " + slotId);
             return null;
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.stk;
+
+import android.content.ComponentCallbacks;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.LruCache;
+
+import com.android.internal.telephony.cat.CatLog;
+
+import java.io.PrintWriter;
+
+/**
+ * Shares the bitmaps decoded from the drawable resources of this application.
+ *
+ * The bitmaps are keyed by the resource name and the screen density, and the total
+ * size is bounded. All the bitmaps are evicted when the configuration is changed.
+ * The returned bitmaps are shared, so callers must neither modify nor recycle them.
+ */
+final class StkBitmapCache {
+    private static final String LOG_TAG = StkBitmapCache.class.getSimpleName();
+
+    private static final String RESOURCE_TYPE = "drawable";
+    private static final int MAX_SIZE_BYTES = 1024 * 1024;
+
+    private static final Object sLock = new Object();
+    private static StkBitmapCache sInstance;
+
+    private final Context mContext;
+    private final LruCache<String, Bitmap> mCache =
+            new LruCache<String, Bitmap>(MAX_SIZE_BYTES) {
+                @Override
+                protected int sizeOf(String key, Bitmap bitmap) {
+                    return bitmap.getAllocationByteCount();
+                }
+            };
+
+    private StkBitmapCache(Context context) {
+        mContext = context;
+    }
+
+    static StkBitmapCache getInstance(Context applicationContext) {
+        synchronized (sLock) {
+            if (sInstance == null) {
+                sInstance = new StkBitmapCache(applicationContext);
+                sInstance.initialize();
+            }
+            return sInstance;
+        }
+    }
+
+    /**
+     * Returns the bitmap of the specified drawable resource, or null if it cannot be decoded.
+     */
+    Bitmap getBitmap(int resId) {
+        Resources res = mContext.getResources();
+        String key = getKey(res.getResourceEntryName(resId), res);
+        Bitmap bitmap = mCache.get(key);
+        if (bitmap == null) {
+            bitmap = decode(key, resId);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Returns the bitmap of the drawable resource with the specified name,
+     * or null if it does not exist or cannot be decoded.
+     */
+    Bitmap getBitmap(String name) {
+        Resources res = mContext.getResources();
+        String key = getKey(name, res);
+        Bitmap bitmap = mCache.get(key);
+        if (bitmap == null) {
+            int resId = res.getIdentifier(name, RESOURCE_TYPE, mContext.getPackageName());
+            if (resId != 0) {
+                bitmap = decode(key, resId);
+            }
+        }
+        return bitmap;
+    }
+
+    private Bitmap decode(String key, int resId) {
+        Bitmap bitmap = BitmapFactory.decodeResource(mContext.getResources(), resId);
+        if (bitmap != null) {
+            mCache.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    private static String getKey(String name, Resources res) {
+        return name + "@" + res.getConfiguration().densityDpi;
+    }
+
+    private void initialize() {
+        mContext.registerComponentCallbacks(new ComponentCallbacks() {
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+                CatLog.d(LOG_TAG, "Configuration changed, evict all bitmaps");
+                mCache.evictAll();
+            }
+
+            @Override
+            public void onLowMemory() {
+                mCache.evictAll();
+            }
+        });
+    }
+
+    void dump(PrintWriter pw) {
+        pw.println("StkBitmapCache: size=" + mCache.size() + "/" + mCache.maxSize()
+                + " hits=" + mCache.hitCount() + " misses=" + mCache.missCount()
+                + " evictions=" + mCache.evictionCount());
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.stk;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.PersistableBundle;
+import android.telephony.CarrierConfigManager;
+import android.telephony.SubscriptionInfo;
+import android.telephony.SubscriptionManager;
+import android.util.SparseArray;
+
+import com.android.internal.telephony.cat.CatLog;
+import com.android.internal.telephony.util.TelephonyUtils;
+
+/**
+ * Provides the carrier config values used by this application for each slot.
+ *
+ * The values are kept as a snapshot per slot, which is taken on the first access
+ * and discarded when the carrier config or the subscriptions are changed.
+ */
+final class StkCarrierConfigCache {
+    private static final String LOG_TAG = StkCarrierConfigCache.class.getSimpleName();
+    private static final boolean DBG = TelephonyUtils.IS_DEBUGGABLE;
+
+    // The carrier config keys read by this application.
+    private static final String[] KEYS = {
+        CarrierConfigManager.KEY_STK_DISABLE_LAUNCH_BROWSER_BOOL,
+        CarrierConfigManager.KEY_HIDE_DIGITS_HELPER_TEXT_ON_STK_INPUT_SCREEN_BOOL,
+    };
+
+    private static final Object sLock = new Object();
+    private static StkCarrierConfigCache sInstance;
+
+    private final Context mContext;
+    private final SparseArray<PersistableBundle> mSnapshots = new SparseArray<PersistableBundle>();
+
+    private StkCarrierConfigCache(Context context) {
+        mContext = context;
+    }
+
+    static StkCarrierConfigCache getInstance(Context applicationContext) {
+        synchronized (sLock) {
+            if (sInstance == null) {
+                sInstance = new StkCarrierConfigCache(applicationContext);
+                sInstance.initialize();
+            }
+            return sInstance;
+        }
+    }
+
+    /**
+     * Returns true if the carrier does not want to launch browser by LAUNCH BROWSER command.
+     */
+    boolean isLaunchBrowserDisabled(int slotId) {
+        return getBoolean(CarrierConfigManager.KEY_STK_DISABLE_LAUNCH_BROWSER_BOOL, slotId);
+    }
+
+    /**
+     * Returns true if the helper text should be hidden on the input screen for digits.
+     */
+    boolean isDigitsHelperTextHidden(int slotId) {
+        return getBoolean(
+                CarrierConfigManager.KEY_HIDE_DIGITS_HELPER_TEXT_ON_STK_INPUT_SCREEN_BOOL,
+                slotId);
+    }
+
+    /**
+     * Takes the snapshot of the slot in advance if it is not available, so that the values
+     * can be read later without binder calls, e.g. on the main thread of the activities.
+     * This must be called on a background thread.
+     */
+    void prefetch(int slotId) {
+        getSnapshot(slotId);
+    }
+
+    private boolean getBoolean(String key, int slotId) {
+        return getSnapshot(slotId).getBoolean(key);
+    }
+
+    private synchronized PersistableBundle getSnapshot(int slotId) {
+        PersistableBundle snapshot = mSnapshots.get(slotId);
+        if (snapshot != null) {
+            return snapshot;
+        }
+
+        CarrierConfigManager ccm = (CarrierConfigManager) mContext.getSystemService(
+                Context.CARRIER_CONFIG_SERVICE);
+        SubscriptionManager sm = (SubscriptionManager) mContext.getSystemService(
+                Context.TELEPHONY_SUBSCRIPTION_SERVICE);
+        PersistableBundle b = null;
+        if (ccm != null && sm != null) {
+            SubscriptionInfo info = sm.getActiveSubscriptionInfoForSimSlotIndex(slotId);
+            if (info != null) {
+                b = ccm.getConfigForSubId(info.getSubscriptionId());
+            }
+        }
+        if (b == null) {
+            // Use static default defined in CarrierConfigManager.
+            b = CarrierConfigManager.getDefaultConfig();
+        }
+
+        snapshot = new PersistableBundle();
+        for (String key : KEYS) {
+            snapshot.putBoolean(key, b.getBoolean(key));
+        }
+        mSnapshots.put(slotId, snapshot);
+        if (DBG) CatLog.d(LOG_TAG, "Create the snapshot: " + snapshot + ", slot id: " + slotId);
+        return snapshot;
+    }
+
+    private synchronized void invalidate(int slotId) {
+        if (slotId == SubscriptionManager.INVALID_SIM_SLOT_INDEX) {
+            mSnapshots.clear();
+        } else {
+            mSnapshots.remove(slotId);
+        }
+    }
+
+    private void initialize() {
+        mContext.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                invalidate(intent.getIntExtra(CarrierConfigManager.EXTRA_SLOT_INDEX,
+                        SubscriptionManager.INVALID_SIM_SLOT_INDEX));
+            }
+        }, new IntentFilter(CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED));
+
+        SubscriptionManager sm = (SubscriptionManager) mContext.getSystemService(
+                Context.TELEPHONY_SUBSCRIPTION_SERVICE);
+        if (sm != null) {
+            sm.addOnSubscriptionsChangedListener(Runnable::run,
+                    new SubscriptionManager.OnSubscriptionsChangedListener() {
+                        @Override
+                        public void onSubscriptionsChanged() {
+                            invalidate(SubscriptionManager.INVALID_SIM_SLOT_INDEX);
+                        }
+                    });
+        }
+    }
+}
@@ -61,6 +61,7 @@ public class StkCmdReceiver extends BroadcastReceiver {
         if (StkAppService.OP_CMD == op) {
             args.putParcelable(StkAppService.CMD_MSG, intent
                     .getParcelableExtra(StkAppService.STK_CMD));
+            args.putLong(StkAppService.RECEIVED_TIME, StkCmdTracer.now());
         } else if (StkAppService.OP_CARD_STATUS_CHANGED == op) {
             // If the Card is absent then check if the StkAppService is even
             // running before starting it to stop it right away
@@ -81,6 +82,15 @@ public class StkCmdReceiver extends BroadcastReceiver {
 
         CatLog.d(LOG_TAG, "handleAction, op: " + op +
                 "args: " + args + ", slot id: " + slot_id);
+        StkAppService service = StkAppService.getInstance();
+        if (service != null && service.isReadyForRequest()) {
+            // The service is already running in this process, so it is not necessary
+            // to start it again.
+            StkCmdTracer.getInstance().onHandedOver(true);
+            service.handleRequest(args);
+            return;
+        }
+        StkCmdTracer.getInstance().onHandedOver(false);
         Intent toService = new Intent(context, StkAppService.class);
         toService.putExtras(args);
         context.startService(toService);
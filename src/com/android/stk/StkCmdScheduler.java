@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.stk;
+
+import com.android.internal.telephony.cat.AppInterface;
+import com.android.internal.telephony.cat.CatCmdMessage;
+import com.android.internal.telephony.cat.TextMessage;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+/**
+ * Bounded queue of telephony messages (proactive commands, session end) which
+ * arrived while the service was busy processing a previous message of the same slot.
+ *
+ * Session end is kept in its arrival order, so that it never overtakes a command which
+ * the card sent earlier. A high priority DISPLAY TEXT command is served ahead of the other
+ * queued commands, but never ahead of a queued session end. If the queue is full,
+ * a proactive command is rejected and the caller is expected to send a terminal response
+ * for it. Session end is never rejected but coalesced with the one at the tail.
+ */
+final class StkCmdScheduler {
+    static final class DelayedCmd {
+        // members
+        final int id;
+        final CatCmdMessage msg;
+        final int slotId;
+
+        DelayedCmd(int id, CatCmdMessage msg, int slotId) {
+            this.id = id;
+            this.msg = msg;
+            this.slotId = slotId;
+        }
+
+        boolean isSessionEnd() {
+            return id == StkAppService.OP_END_SESSION;
+        }
+
+        boolean isHighPriority() {
+            if (msg != null && msg.getCmdType() == AppInterface.CommandType.DISPLAY_TEXT) {
+                TextMessage text = msg.geTextMessage();
+                return text != null && text.isHighPriority;
+            }
+            return false;
+        }
+    }
+
+    private final int mCapacity;
+    private final ArrayList<DelayedCmd> mQueue = new ArrayList<DelayedCmd>();
+
+    // Statistics
+    private int mOfferedCount = 0;
+    private int mRejectedCount = 0;
+    private int mCoalescedCount = 0;
+    private int mMaxDepth = 0;
+
+    StkCmdScheduler(int capacity) {
+        mCapacity = Math.max(1, capacity);
+    }
+
+    /**
+     * Queues the specified entry.
+     *
+     * @return false if the entry is rejected because the queue is full.
+     */
+    boolean offer(DelayedCmd cmd) {
+        mOfferedCount++;
+        if (cmd.isSessionEnd()) {
+            if (!mQueue.isEmpty() && mQueue.get(mQueue.size() - 1).isSessionEnd()) {
+                mCoalescedCount++;
+                return true;
+            }
+        } else if (mQueue.size() >= mCapacity) {
+            mRejectedCount++;
+            return false;
+        }
+
+        if (cmd.isHighPriority()) {
+            // Insert it after the last session end or high priority command.
+            int index = mQueue.size();
+            while (index > 0 && !mQueue.get(index - 1).isSessionEnd()
+                    && !mQueue.get(index - 1).isHighPriority()) {
+                index--;
+            }
+            mQueue.add(index, cmd);
+        } else {
+            mQueue.add(cmd);
+        }
+        mMaxDepth = Math.max(mMaxDepth, mQueue.size());
+        return true;
+    }
+
+    /**
+     * Retrieves and removes the next entry, or returns null if the queue is empty.
+     */
+    DelayedCmd poll() {
+        if (mQueue.isEmpty()) {
+            return null;
+        }
+        return mQueue.remove(0);
+    }
+
+    int size() {
+        return mQueue.size();
+    }
+
+    void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + "cmd queue: size=" + mQueue.size() + "/" + mCapacity
+                + " offered=" + mOfferedCount + " rejected=" + mRejectedCount
+                + " coalesced=" + mCoalescedCount + " maxDepth=" + mMaxDepth);
+    }
+}
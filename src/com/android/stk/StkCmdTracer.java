@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.stk;
+
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import com.android.internal.telephony.cat.AppInterface;
+import com.android.internal.telephony.cat.CatCmdMessage;
+import com.android.internal.telephony.cat.CatLog;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Keeps the timing of recent proactive commands, from the broadcast received by
+ * StkCmdReceiver to the terminal response handed back to the CatService.
+ * The records are kept in a bounded ring buffer and can be dumped through dumpsys.
+ */
+final class StkCmdTracer {
+    private static final String LOG_TAG = StkCmdTracer.class.getSimpleName();
+
+    // Stages of a proactive command.
+    static final int STAGE_RECEIVED = 0;
+    static final int STAGE_DEQUEUED = 1;
+    static final int STAGE_LAUNCHED = 2;
+    static final int STAGE_RESPONDED = 3;
+    private static final int STAGE_COUNT = 4;
+
+    private static final int MAX_RECORDS = 256;
+    private static final int MAX_PENDING_RECORDS = 16;
+    private static final long NOT_STAMPED = -1;
+
+    private static final Object sLock = new Object();
+    private static StkCmdTracer sInstance;
+
+    private static final class Record {
+        final int slotId;
+        final AppInterface.CommandType type;
+        final int cmdId;
+        final long[] stamps = new long[STAGE_COUNT];
+        // Used only to match the stages of the command, and cleared when it is committed
+        // so that the menus and icons of the command are not kept by the ring buffer.
+        CatCmdMessage cmd;
+
+        Record(int slotId, CatCmdMessage cmd) {
+            this.slotId = slotId;
+            this.cmd = cmd;
+            this.type = cmd.getCmdType();
+            this.cmdId = System.identityHashCode(cmd);
+            Arrays.fill(stamps, NOT_STAMPED);
+        }
+
+        long elapsed(int from, int to) {
+            if (stamps[from] == NOT_STAMPED || stamps[to] == NOT_STAMPED) {
+                return NOT_STAMPED;
+            }
+            return stamps[to] - stamps[from];
+        }
+
+        long total() {
+            for (int stage = STAGE_COUNT - 1; stage > STAGE_RECEIVED; stage--) {
+                if (stamps[stage] != NOT_STAMPED) {
+                    return elapsed(STAGE_RECEIVED, stage);
+                }
+            }
+            return NOT_STAMPED;
+        }
+    }
+
+    // Commands which have been received but not launched yet.
+    private final ArrayList<Record> mPending = new ArrayList<Record>();
+    // Commands which have been launched and are waiting for the response, per slot.
+    private final SparseArray<Record> mActive = new SparseArray<Record>();
+    private final Record[] mRecords = new Record[MAX_RECORDS];
+    private int mNextRecord = 0;
+    private int mRecordCount = 0;
+    // The number of requests handed over from StkCmdReceiver directly and via startService.
+    private int mDirectHandoverCount = 0;
+    private int mStartServiceCount = 0;
+    // The startup time of the service.
+    private long mServiceCreatingTime = NOT_STAMPED;
+    private long mHandlerReadyTime = NOT_STAMPED;
+    private long mServiceCreatedTime = NOT_STAMPED;
+    private long mFirstCmdHandledTime = NOT_STAMPED;
+
+    private StkCmdTracer() {
+    }
+
+    static StkCmdTracer getInstance() {
+        synchronized (sLock) {
+            if (sInstance == null) {
+                sInstance = new StkCmdTracer();
+            }
+            return sInstance;
+        }
+    }
+
+    static long now() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Stamps the time when the command was received by StkCmdReceiver.
+     */
+    synchronized void onReceived(int slotId, CatCmdMessage cmd, long receivedTime) {
+        if (cmd == null || cmd.getCmdType() == null) {
+            return;
+        }
+        if (mPending.size() >= MAX_PENDING_RECORDS) {
+            commit(mPending.remove(0));
+        }
+        Record record = new Record(slotId, cmd);
+        record.stamps[STAGE_RECEIVED] = receivedTime > 0 ? receivedTime : now();
+        mPending.add(record);
+    }
+
+    /**
+     * Stamps the time when the service handler dequeued the command.
+     */
+    synchronized void onDequeued(CatCmdMessage cmd) {
+        Record record = findPending(cmd);
+        if (record != null) {
+            record.stamps[STAGE_DEQUEUED] = now();
+        }
+    }
+
+    /**
+     * Stamps the time when the command has been handled and its UI has been launched.
+     */
+    synchronized void onLaunched(int slotId, CatCmdMessage cmd, boolean waitForResponse) {
+        Record record = findPending(cmd);
+        if (record == null) {
+            return;
+        }
+        mPending.remove(record);
+        record.stamps[STAGE_LAUNCHED] = now();
+
+        // The previous command of the slot will never be responded if it is still active.
+        Record previous = mActive.get(slotId);
+        if (previous != null) {
+            mActive.remove(slotId);
+            commit(previous);
+        }
+        if (waitForResponse) {
+            mActive.put(slotId, record);
+        } else {
+            commit(record);
+        }
+    }
+
+    /**
+     * Stamps the time when the response was sent back to the CatService.
+     */
+    synchronized void onResponded(int slotId, CatCmdMessage cmd) {
+        Record record = mActive.get(slotId);
+        if (record == null || record.cmd != cmd) {
+            // The response can be sent before the command is recorded as launched.
+            record = findPending(cmd);
+            if (record == null) {
+                return;
+            }
+            mPending.remove(record);
+        } else {
+            mActive.remove(slotId);
+        }
+        record.stamps[STAGE_RESPONDED] = now();
+        commit(record);
+    }
+
+    /**
+     * Stamps the time when the first command is handled by the service.
+     */
+    synchronized void onCmdHandled() {
+        if (mFirstCmdHandledTime == NOT_STAMPED && mServiceCreatingTime != NOT_STAMPED) {
+            mFirstCmdHandledTime = now();
+            CatLog.d(LOG_TAG, "The first command was handled in "
+                    + toMillis(mFirstCmdHandledTime - mServiceCreatingTime)
+                    + " ms after the service started to be created");
+        }
+    }
+
+    /**
+     * Stamps the time when the service starts to be created.
+     */
+    synchronized void onServiceCreating() {
+        mServiceCreatingTime = now();
+        mHandlerReadyTime = NOT_STAMPED;
+        mServiceCreatedTime = NOT_STAMPED;
+        mFirstCmdHandledTime = NOT_STAMPED;
+    }
+
+    /**
+     * Stamps the time when the handler of the service is ready for the requests.
+     */
+    synchronized void onHandlerReady() {
+        mHandlerReadyTime = now();
+    }
+
+    /**
+     * Returns true if the handler of the service was ready by the time the service
+     * had been created, so that no request needs to wait for it.
+     */
+    synchronized boolean isHandlerReadyOnCreated() {
+        return mHandlerReadyTime != NOT_STAMPED && mServiceCreatedTime != NOT_STAMPED
+                && mHandlerReadyTime <= mServiceCreatedTime;
+    }
+
+    /**
+     * Stamps the time when the service has been created.
+     */
+    synchronized void onServiceCreated() {
+        mServiceCreatedTime = now();
+    }
+
+    /**
+     * Returns the time in nanoseconds from the start of the service creation to the first
+     * command handled, or -1 if no command has been handled since then.
+     */
+    synchronized long getFirstCmdLatency() {
+        return elapsed(mServiceCreatingTime, mFirstCmdHandledTime);
+    }
+
+    /**
+     * Counts the request handed over from StkCmdReceiver to the service.
+     */
+    synchronized void onHandedOver(boolean direct) {
+        if (direct) {
+            mDirectHandoverCount++;
+        } else {
+            mStartServiceCount++;
+        }
+    }
+
+    private Record findPending(CatCmdMessage cmd) {
+        for (Record record : mPending) {
+            if (record.cmd == cmd) {
+                return record;
+            }
+        }
+        return null;
+    }
+
+    private void commit(Record record) {
+        record.cmd = null;
+        mRecords[mNextRecord] = record;
+        mNextRecord = (mNextRecord + 1) % MAX_RECORDS;
+        if (mRecordCount < MAX_RECORDS) {
+            mRecordCount++;
+        }
+    }
+
+    synchronized void dump(PrintWriter pw) {
+        pw.println("StkCmdTracer: " + mRecordCount + " records, " + mPending.size()
+                + " pending, " + mActive.size() + " active");
+        pw.println("  Startup in ms: handler=" + toMillis(elapsed(mServiceCreatingTime,
+                mHandlerReadyTime)) + " create=" + toMillis(elapsed(mServiceCreatingTime,
+                mServiceCreatedTime)) + " firstCmd=" + toMillis(elapsed(mServiceCreatingTime,
+                mFirstCmdHandledTime)));
+        pw.println("  Requests from receiver: direct=" + mDirectHandoverCount
+                + " startService=" + mStartServiceCount);
+
+        Map<AppInterface.CommandType, ArrayList<Record>> byType =
+                new EnumMap<AppInterface.CommandType, ArrayList<Record>>(
+                        AppInterface.CommandType.class);
+        for (int i = 0; i < mRecordCount; i++) {
+            Record record = mRecords[(mNextRecord - mRecordCount + i + MAX_RECORDS) % MAX_RECORDS];
+            ArrayList<Record> list = byType.get(record.type);
+            if (list == null) {
+                list = new ArrayList<Record>();
+                byType.put(record.type, list);
+            }
+            list.add(record);
+        }
+
+        pw.println("  Latency percentiles in ms (p50/p95/p99):");
+        for (Map.Entry<AppInterface.CommandType, ArrayList<Record>> entry : byType.entrySet()) {
+            ArrayList<Record> list = entry.getValue();
+            pw.println("    " + entry.getKey() + " count=" + list.size()
+                    + " queue=" + percentiles(list, STAGE_RECEIVED, STAGE_DEQUEUED)
+                    + " handle=" + percentiles(list, STAGE_DEQUEUED, STAGE_LAUNCHED)
+                    + " user=" + percentiles(list, STAGE_LAUNCHED, STAGE_RESPONDED)
+                    + " total=" + percentiles(list, -1, -1));
+        }
+
+        pw.println("  Recent commands (received/dequeued/launched/responded in ms):");
+        for (int i = 0; i < mRecordCount; i++) {
+            Record record = mRecords[(mNextRecord - mRecordCount + i + MAX_RECORDS) % MAX_RECORDS];
+            StringBuilder sb = new StringBuilder("    slot=").append(record.slotId)
+                    .append(" ").append(record.type)
+                    .append(" id=").append(Integer.toHexString(record.cmdId)).append(" 0");
+            for (int stage = STAGE_DEQUEUED; stage < STAGE_COUNT; stage++) {
+                sb.append("/").append(toMillis(record.elapsed(STAGE_RECEIVED, stage)));
+            }
+            pw.println(sb.toString());
+        }
+    }
+
+    private static long elapsed(long from, long to) {
+        return (from == NOT_STAMPED || to == NOT_STAMPED) ? NOT_STAMPED : to - from;
+    }
+
+    private static String percentiles(ArrayList<Record> list, int from, int to) {
+        long[] values = new long[list.size()];
+        int count = 0;
+        for (Record record : list) {
+            long value = (from < 0) ? record.total() : record.elapsed(from, to);
+            if (value != NOT_STAMPED) {
+                values[count++] = value;
+            }
+        }
+        if (count == 0) {
+            return "-";
+        }
+        Arrays.sort(values, 0, count);
+        return toMillis(percentile(values, count, 50)) + "/"
+                + toMillis(percentile(values, count, 95)) + "/"
+                + toMillis(percentile(values, count, 99));
+    }
+
+    private static long percentile(long[] sorted, int count, int percent) {
+        int index = (int) Math.ceil(percent / 100.0 * count) - 1;
+        return sorted[Math.max(0, Math.min(index, count - 1))];
+    }
+
+    private static String toMillis(long nanos) {
+        if (nanos == NOT_STAMPED) {
+            return "-";
+        }
+        return String.format(Locale.US, "%.1f", nanos / 1000000.0);
+    }
+}
@@ -292,7 +292,8 @@ public class StkDialogActivity extends Activity {
             return;
         }
 
-        if (StkAppService.getInstance() == null) {
+        StkAppService appService = StkAppService.getInstance();
+        if (appService == null) {
             CatLog.d(LOG_TAG, "Ignore response: id is " + resId);
             return;
         }
@@ -300,12 +301,7 @@ public class StkDialogActivity extends Activity {
         CatLog.d(LOG_TAG, "sendResponse resID[" + resId + "] confirmed[" + confirmed + "]");
 
         if (mTextMsg.responseNeeded) {
-            Bundle args = new Bundle();
-            args.putInt(StkAppService.OPCODE, StkAppService.OP_RESPONSE);
-            args.putInt(StkAppService.SLOT_ID, mSlotId);
-            args.putInt(StkAppService.RES_ID, resId);
-            args.putBoolean(StkAppService.CONFIRMATION, confirmed);
-            startService(new Intent(this, StkAppService.class).putExtras(args));
+            appService.sendResponse(StkResponse.of(resId, confirmed), mSlotId);
             mIsResponseSent = true;
         }
         if (!isFinishing()) {
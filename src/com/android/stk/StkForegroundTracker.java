@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.stk;
+
+import android.app.Activity;
+import android.app.ActivityManager;
+import android.app.ActivityManager.RunningTaskInfo;
+import android.app.Application;
+import android.app.HomeVisibilityListener;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.os.Bundle;
+
+import com.android.internal.telephony.cat.CatLog;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps track of what is in the foreground, so that the service can know whether
+ * the home screen or any SIM Toolkit activity is on top without binder calls.
+ *
+ * The resumed activities of this package are tracked by the activity lifecycle callbacks.
+ * The home visibility is updated by HomeVisibilityListener, which is registered only while
+ * any user needs it, as it makes system_server query the tasks on every foreground change.
+ * The running tasks are queried only while the home visibility is unknown. The resolved
+ * home package is cached, and package change broadcasts are received only while it is
+ * cached to invalidate it.
+ */
+final class StkForegroundTracker {
+    private static final String LOG_TAG = StkForegroundTracker.class.getSimpleName();
+
+    private static final int STATE_UNKNOWN = -1;
+    private static final int STATE_INVISIBLE = 0;
+    private static final int STATE_VISIBLE = 1;
+
+    // The number of binder calls made by each query.
+    private static final int RUNNING_TASKS_CALLS = 1;
+    private static final int HOME_PACKAGE_CALLS = 1;
+
+    /**
+     * Callback to get notified when the home screen becomes visible or invisible.
+     */
+    interface Callback {
+        void onHomeVisibilityChanged(boolean isHomeActivityVisible);
+
+        /**
+         * Called when the home screen or the activities of this package enter or leave
+         * the foreground, e.g. as another application has been launched.
+         */
+        void onForegroundChanged();
+    }
+
+    private final Context mContext;
+    private final Callback mCallback;
+    private final String mPackageName;
+
+    private volatile int mHomeState = STATE_UNKNOWN;
+    private String mHomePackage = null;
+    // The resumed activities of this package.
+    private final ArrayList<Activity> mResumedActivities = new ArrayList<Activity>();
+
+    private HomeVisibilityListener mHomeVisibilityListener = null;
+    // The number of users which need the home visibility to be tracked.
+    private int mHomeTrackingCount = 0;
+    private BroadcastReceiver mPackageChangeReceiver = null;
+    private Application mApplication = null;
+
+    // Statistics
+    private int mQueryCount = 0;
+    private int mBinderCallsMade = 0;
+    private int mBinderCallsAvoided = 0;
+
+    StkForegroundTracker(Context context, Callback callback) {
+        mContext = context;
+        mCallback = callback;
+        mPackageName = context.getPackageName();
+    }
+
+    void start(Application application) {
+        mApplication = application;
+        if (mApplication != null) {
+            mApplication.registerActivityLifecycleCallbacks(mActivityLifecycleCallbacks);
+        }
+        CatLog.d(LOG_TAG, "Started to track the foreground state");
+    }
+
+    void stop() {
+        synchronized (this) {
+            mHomeTrackingCount = 0;
+            removeHomeVisibilityListener();
+        }
+        if (mApplication != null) {
+            mApplication.unregisterActivityLifecycleCallbacks(mActivityLifecycleCallbacks);
+            mApplication = null;
+        }
+        synchronized (this) {
+            invalidateHomePackage();
+            mResumedActivities.clear();
+        }
+    }
+
+    /**
+     * Starts to track the home visibility for a user, e.g. IDLE SCREEN AVAILABLE event.
+     * Each call must be paired with {@link #stopTrackingHome()}.
+     */
+    synchronized void startTrackingHome() {
+        if (mHomeTrackingCount++ > 0) {
+            return;
+        }
+        mHomeVisibilityListener = new HomeVisibilityListener() {
+            @Override
+            public void onHomeVisibilityChanged(boolean isHomeActivityVisible) {
+                synchronized (StkForegroundTracker.this) {
+                    if (mHomeVisibilityListener != this) {
+                        return;
+                    }
+                    mHomeState = isHomeActivityVisible ? STATE_VISIBLE : STATE_INVISIBLE;
+                }
+                mCallback.onHomeVisibilityChanged(isHomeActivityVisible);
+                mCallback.onForegroundChanged();
+            }
+        };
+        ActivityManager am = mContext.getSystemService(ActivityManager.class);
+        am.addHomeVisibilityListener(Runnable::run, mHomeVisibilityListener);
+        CatLog.d(LOG_TAG, "Started to track the home visibility");
+    }
+
+    /**
+     * Stops tracking the home visibility for a user. The listener is removed when no user
+     * needs it any more.
+     */
+    synchronized void stopTrackingHome() {
+        if (mHomeTrackingCount == 0 || --mHomeTrackingCount > 0) {
+            return;
+        }
+        removeHomeVisibilityListener();
+        CatLog.d(LOG_TAG, "Stopped to track the home visibility");
+    }
+
+    private void removeHomeVisibilityListener() {
+        if (mHomeVisibilityListener != null) {
+            ActivityManager am = mContext.getSystemService(ActivityManager.class);
+            am.removeHomeVisibilityListener(mHomeVisibilityListener);
+            mHomeVisibilityListener = null;
+        }
+        // Nothing is known about the home visibility until the listener is added again.
+        mHomeState = STATE_UNKNOWN;
+    }
+
+    /**
+     * Returns true if the home application is in the foreground.
+     */
+    synchronized boolean isHomeOnTop() {
+        mQueryCount++;
+        if (hasResumedActivityInFullscreen()) {
+            mBinderCallsAvoided += RUNNING_TASKS_CALLS + HOME_PACKAGE_CALLS;
+            return false;
+        }
+        if (mHomeState != STATE_UNKNOWN) {
+            mBinderCallsAvoided += RUNNING_TASKS_CALLS + HOME_PACKAGE_CALLS;
+            return mHomeState == STATE_VISIBLE;
+        }
+        // The home visibility is not tracked now.
+        String top = queryTopPackageName();
+        return top != null && top.equals(getHomePackage());
+    }
+
+    /**
+     * Returns true if any activity of this package is in the foreground.
+     */
+    synchronized boolean isStkOnTop() {
+        mQueryCount++;
+        if (mResumedActivities.isEmpty()) {
+            // The top activity is always resumed.
+            mBinderCallsAvoided += RUNNING_TASKS_CALLS;
+            return false;
+        }
+        if (hasResumedActivityInFullscreen()) {
+            // Any other activity on top of this one would have paused it.
+            mBinderCallsAvoided += RUNNING_TASKS_CALLS;
+            return true;
+        }
+        // Multiple activities can be resumed in the multi-window mode.
+        return mPackageName.equals(queryTopPackageName());
+    }
+
+    private boolean hasResumedActivityInFullscreen() {
+        for (Activity activity : mResumedActivities) {
+            if (!activity.isInMultiWindowMode()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Queries the package name of the top activity. This always makes a binder call.
+     */
+    private String queryTopPackageName() {
+        ActivityManager am = mContext.getSystemService(ActivityManager.class);
+        List<RunningTaskInfo> tasks = am.getRunningTasks(1);
+        mBinderCallsMade += RUNNING_TASKS_CALLS;
+        if (tasks == null || tasks.isEmpty() || tasks.get(0).topActivity == null) {
+            return null;
+        }
+        return tasks.get(0).topActivity.getPackageName();
+    }
+
+    private String getHomePackage() {
+        String home = mHomePackage;
+        if (home != null) {
+            mBinderCallsAvoided += HOME_PACKAGE_CALLS;
+            return home;
+        }
+        // We can assume that the screen is idle if the home application is in the foreground.
+        final Intent intent = new Intent(Intent.ACTION_MAIN, null);
+        intent.addCategory(Intent.CATEGORY_HOME);
+        ResolveInfo info = mContext.getPackageManager().resolveActivity(intent,
+                PackageManager.MATCH_DEFAULT_ONLY);
+        mBinderCallsMade += HOME_PACKAGE_CALLS;
+        if (info != null && info.activityInfo != null) {
+            home = info.activityInfo.packageName;
+            mHomePackage = home;
+            registerPackageChangeReceiver();
+        }
+        return home;
+    }
+
+    /*
+     * Receives the changes which can replace the default home application while the resolved
+     * home package is cached. The receiver is unregistered on the first change.
+     */
+    private void registerPackageChangeReceiver() {
+        if (mPackageChangeReceiver != null) {
+            return;
+        }
+        mPackageChangeReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                synchronized (StkForegroundTracker.this) {
+                    if (mPackageChangeReceiver == this) {
+                        invalidateHomePackage();
+                    }
+                }
+            }
+        };
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addDataScheme("package");
+        mContext.registerReceiver(mPackageChangeReceiver, filter);
+        mContext.registerReceiver(mPackageChangeReceiver,
+                new IntentFilter(Intent.ACTION_PREFERRED_ACTIVITY_CHANGED));
+    }
+
+    private void invalidateHomePackage() {
+        mHomePackage = null;
+        if (mPackageChangeReceiver != null) {
+            mContext.unregisterReceiver(mPackageChangeReceiver);
+            mPackageChangeReceiver = null;
+        }
+    }
+
+    synchronized void dump(PrintWriter pw) {
+        pw.println("StkForegroundTracker: home=" + mHomeState
+                + " homeTrackingUsers=" + mHomeTrackingCount + " homePackage=" + mHomePackage
+                + " resumedActivities=" + mResumedActivities.size()
+                + " packageReceiver=" + (mPackageChangeReceiver != null));
+        pw.println("  queries=" + mQueryCount + " binderCallsMade=" + mBinderCallsMade
+                + " binderCallsAvoided=" + mBinderCallsAvoided);
+    }
+
+    private final Application.ActivityLifecycleCallbacks mActivityLifecycleCallbacks =
+            new Application.ActivityLifecycleCallbacks() {
+        @Override
+        public void onActivityResumed(Activity activity) {
+            if (!mPackageName.equals(activity.getPackageName())) {
+                return;
+            }
+            synchronized (StkForegroundTracker.this) {
+                mResumedActivities.add(activity);
+            }
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+            synchronized (StkForegroundTracker.this) {
+                if (!mResumedActivities.remove(activity) || !mResumedActivities.isEmpty()) {
+                    return;
+                }
+            }
+            mCallback.onForegroundChanged();
+        }
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+        }
+    };
+}
@@ -22,7 +22,6 @@ import android.content.Intent;
 import android.content.res.Configuration;
 import android.os.Bundle;
 import android.os.SystemClock;
-import android.telephony.CarrierConfigManager;
 import android.text.Editable;
 import android.text.InputFilter;
 import android.text.InputType;
@@ -299,13 +298,9 @@ public class StkInputActivity extends AppCompatActivity implements View.OnClickL
         CatLog.d(LOG_TAG, "sendResponse resID[" + resId + "] input[*****] help[" 
                 + help + "]");
         mIsResponseSent = true;
-        Bundle args = new Bundle();
-        args.putInt(StkAppService.RES_ID, resId);
-        if (input != null) {
-            args.putString(StkAppService.INPUT, input);
-        }
-        args.putBoolean(StkAppService.HELP, help);
-        appService.sendResponse(args, mSlotId);
+        StkResponse response = (resId == StkAppService.RES_ID_INPUT)
+                ? StkResponse.ofInput(input, help) : StkResponse.of(resId);
+        appService.sendResponse(response, mSlotId);
     }
 
     @Override
@@ -452,9 +447,8 @@ public class StkInputActivity extends AppCompatActivity implements View.OnClickL
             mTextIn.setKeyListener(StkDigitsKeyListener.getInstance());
             mTextIn.setInputType(InputType.TYPE_CLASS_PHONE);
             inTypeId = R.string.digits;
-            hideHelper = StkAppService.getBooleanCarrierConfig(this,
-                    CarrierConfigManager.KEY_HIDE_DIGITS_HELPER_TEXT_ON_STK_INPUT_SCREEN_BOOL,
-                    mSlotId);
+            hideHelper = StkCarrierConfigCache.getInstance(getApplicationContext())
+                    .isDigitsHelperTextHidden(mSlotId);
         }
         textInput.setHelperText(getResources().getString(inTypeId));
         textInput.setHelperTextEnabled(!hideHelper);
@@ -28,7 +28,6 @@ import android.widget.ImageView;
 import android.widget.ListView;
 import android.widget.TextView;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 
 import com.android.internal.telephony.cat.Item;
 import com.android.internal.telephony.cat.Menu;
@@ -72,8 +71,8 @@ public class StkLauncherActivity extends ListActivity {
         mTitleTextView = (TextView) findViewById(R.id.title_text);
         mTitleIconView = (ImageView) findViewById(R.id.title_icon);
         mTitleTextView.setText(R.string.app_name);
-        mBitMap = BitmapFactory.decodeResource(getResources(),
-                R.drawable.ic_launcher_sim_toolkit);
+        mBitMap = StkBitmapCache.getInstance(getApplicationContext())
+                .getBitmap(R.drawable.ic_launcher_sim_toolkit);
     }
 
     @Override
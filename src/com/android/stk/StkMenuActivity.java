@@ -19,10 +19,8 @@ package com.android.stk;
 import android.app.ActionBar;
 import android.app.AlarmManager;
 import android.app.ListActivity;
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.os.Bundle;
 import android.os.SystemClock;
 import android.telephony.SubscriptionManager;
@@ -38,8 +36,6 @@ import android.widget.ListView;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
-import androidx.localbroadcastmanager.content.LocalBroadcastManager;
-
 import com.android.internal.telephony.cat.CatLog;
 import com.android.internal.telephony.cat.Item;
 import com.android.internal.telephony.cat.Menu;
@@ -52,6 +48,8 @@ import com.android.internal.telephony.cat.Menu;
  */
 public class StkMenuActivity extends ListActivity implements View.OnCreateContextMenuListener {
     private Menu mStkMenu = null;
+    // Whether the menu is the one saved last time, which cannot be selected.
+    private boolean mIsMenuSnapshot = false;
     private int mState = STATE_MAIN;
     private boolean mAcceptUsersInput = true;
     private int mSlotId = -1;
@@ -108,13 +106,12 @@ public class StkMenuActivity extends ListActivity implements View.OnCreateContex
             return;
         }
 
-        LocalBroadcastManager.getInstance(this).registerReceiver(mLocalBroadcastReceiver,
-                new IntentFilter(StkAppService.SESSION_ENDED));
         initFromIntent(getIntent());
         if (!SubscriptionManager.isValidSlotIndex(mSlotId)) {
             finish();
             return;
         }
+        appService.registerSessionListener(mSlotId, mSessionListener);
         if (mState == STATE_SECONDARY) {
             appService.getStkContext(mSlotId).setPendingActivityInstance(this);
         }
@@ -129,6 +126,11 @@ public class StkMenuActivity extends ListActivity implements View.OnCreateContex
             return;
         }
 
+        if (mIsMenuSnapshot) {
+            CatLog.d(LOG_TAG, "The saved menu cannot be selected");
+            return;
+        }
+
         Item item = getSelectedItem(position);
         if (item == null) {
             CatLog.d(LOG_TAG, "Item is null");
@@ -173,8 +175,10 @@ public class StkMenuActivity extends ListActivity implements View.OnCreateContex
         appService.indicateMenuVisibility(true, mSlotId);
         if (mState == STATE_MAIN) {
             mStkMenu = appService.getMainMenu(mSlotId);
+            mIsMenuSnapshot = appService.isMainMenuSnapshot(mSlotId, mStkMenu);
         } else {
             mStkMenu = appService.getMenu(mSlotId);
+            mIsMenuSnapshot = false;
         }
         if (mStkMenu == null) {
             CatLog.d(LOG_TAG, "menu is null");
@@ -239,7 +243,7 @@ public class StkMenuActivity extends ListActivity implements View.OnCreateContex
             }
         }
         cancelTimeOut();
-        LocalBroadcastManager.getInstance(this).unregisterReceiver(mLocalBroadcastReceiver);
+        appService.unregisterSessionListener(mSlotId, mSessionListener);
     }
 
     @Override
@@ -285,7 +289,7 @@ public class StkMenuActivity extends ListActivity implements View.OnCreateContex
             ContextMenuInfo menuInfo) {
         CatLog.d(LOG_TAG, "onCreateContextMenu");
         boolean helpVisible = false;
-        if (mStkMenu != null) {
+        if (mStkMenu != null && !mIsMenuSnapshot) {
             helpVisible = mStkMenu.helpAvailable;
         }
         if (helpVisible) {
@@ -395,6 +399,8 @@ public class StkMenuActivity extends ListActivity implements View.OnCreateContex
             // create an array adapter for the menu list
             StkMenuAdapter adapter = new StkMenuAdapter(this,
                     mStkMenu.items, mStkMenu.itemsIconSelfExplanatory);
+            // The saved menu is displayed until the card sends the main menu again.
+            adapter.setItemsEnabled(!mIsMenuSnapshot);
             // Bind menu list to the new adapter.
             setListAdapter(adapter);
             // Set default item
@@ -458,25 +464,21 @@ public class StkMenuActivity extends ListActivity implements View.OnCreateContex
         cancelTimeOut();
 
         mIsResponseSent = true;
-        Bundle args = new Bundle();
-        args.putInt(StkAppService.RES_ID, resId);
-        args.putInt(StkAppService.MENU_SELECTION, itemId);
-        args.putBoolean(StkAppService.HELP, help);
-        appService.sendResponse(args, mSlotId);
+        StkResponse response = (resId == StkAppService.RES_ID_MENU_SELECTION)
+                ? StkResponse.ofMenuSelection(itemId, help) : StkResponse.of(resId);
+        appService.sendResponse(response, mSlotId);
     }
 
-    private final BroadcastReceiver mLocalBroadcastReceiver = new BroadcastReceiver() {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            if (StkAppService.SESSION_ENDED.equals(intent.getAction())) {
-                int slotId = intent.getIntExtra(StkAppService.SLOT_ID, 0);
-                if ((mState == STATE_MAIN) && (mSlotId == slotId)) {
-                    mAcceptUsersInput = true;
-                    showProgressBar(false);
+    private final StkAppService.SessionListener mSessionListener =
+            new StkAppService.SessionListener() {
+                @Override
+                public void onSessionEnded(int slotId) {
+                    if (mState == STATE_MAIN) {
+                        mAcceptUsersInput = true;
+                        showProgressBar(false);
+                    }
                 }
-            }
-        }
-    };
+            };
 
     private final AlarmManager.OnAlarmListener mAlarmListener =
             new AlarmManager.OnAlarmListener() {
@@ -34,6 +34,7 @@ import java.util.List;
 public class StkMenuAdapter extends ArrayAdapter<Item> {
     private final LayoutInflater mInflater;
     private boolean mIcosSelfExplanatory = false;
+    private boolean mIsItemsEnabled = true;
 
     public StkMenuAdapter(Context context, List<Item> items,
             boolean icosSelfExplanatory) {
@@ -42,6 +43,23 @@ public class StkMenuAdapter extends ArrayAdapter<Item> {
         mIcosSelfExplanatory = icosSelfExplanatory;
     }
 
+    /**
+     * Sets whether the items can be selected.
+     */
+    public void setItemsEnabled(boolean enabled) {
+        mIsItemsEnabled = enabled;
+    }
+
+    @Override
+    public boolean areAllItemsEnabled() {
+        return mIsItemsEnabled;
+    }
+
+    @Override
+    public boolean isEnabled(int position) {
+        return mIsItemsEnabled;
+    }
+
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
         final Item item = getItem(position);
@@ -51,9 +69,11 @@ public class StkMenuAdapter extends ArrayAdapter<Item> {
                     false);
         }
 
+        TextView textView = (TextView) convertView.findViewById(R.id.text);
         if (!mIcosSelfExplanatory || (mIcosSelfExplanatory && item.icon == null)) {
-            ((TextView) convertView.findViewById(R.id.text)).setText(item.text);
+            textView.setText(item.text);
         }
+        textView.setEnabled(mIsItemsEnabled);
         ImageView imageView = ((ImageView) convertView.findViewById(R.id.icon));
         if (item.icon == null) {
             imageView.setVisibility(View.GONE);
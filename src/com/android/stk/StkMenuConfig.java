@@ -19,22 +19,42 @@ package com.android.stk;
 import android.content.Context;
 import android.content.res.XmlResourceParser;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.telephony.SubscriptionInfo;
 import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyManager;
 import android.text.TextUtils;
+import android.util.AtomicFile;
+import android.util.SparseArray;
 
 import com.android.internal.telephony.PhoneConstants;
 import com.android.internal.telephony.cat.CatLog;
 import com.android.internal.telephony.util.TelephonyUtils;
 import com.android.internal.telephony.util.XmlUtils;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.CRC32;
 
 /**
  * Provides preset label and/or icon in accordance with mcc/mnc
  * conbination of the inserted SIM card for Multi-SIM model.
+ *
+ * The preset configs are compiled into a compact binary file in the code cache directory
+ * when menu_conf is parsed for the first time, and the file is read instead of the xml
+ * from then on. The file holds the checksum of the resource it was compiled from, so it is
+ * compiled again when the resource is changed, e.g. an overlay is enabled or disabled.
  */
 public class StkMenuConfig {
     private static final String LOG_TAG = StkMenuConfig.class.getSimpleName();
@@ -47,20 +67,29 @@ public class StkMenuConfig {
     private static final String XML_MNC_ATTR = "mnc";
     private static final String XML_LABEL_ATTR = "label";
     private static final String XML_ICON_ATTR = "icon";
-    private static final String RESOURCE_TYPE = "drawable";
 
     private static final int UNSPECIFIED = -1;
 
+    // The compiled form of menu_conf.
+    private static final String COMPILED_FILE_NAME = "menu_conf.bin";
+    private static final int COMPILED_MAGIC = 0x53544b4d; // "STKM"
+    private static final int COMPILED_VERSION = 2;
+    private static final int NO_STRING = -1;
+
     private static final Config NO_CONFIG = new Config(0, 0, null, null);
 
     private static final Object sLock = new Object();
     private static StkMenuConfig sInstance;
 
     private Context mContext;
-    private ArrayList<Config> mArray;
+    // Preset configs indexed by the packed mcc/mnc, which is loaded on the first use.
+    private final Object mIndexLock = new Object();
+    private SparseArray<Config> mIndex = null;
     private Config mConfigs[] = null;
+    // Incremented every time the cached configs are invalidated.
+    private volatile int mGeneration = 0;
 
-    private static class Config {
+    static class Config {
         public int mcc;
         public int mnc;
         public String label;
@@ -84,41 +113,64 @@ public class StkMenuConfig {
         }
     }
 
+    /**
+     * Loads the preset configs on the specified worker, so that they are ready
+     * by the time the first SET-UP MENU command is handled.
+     */
+    public static void preload(Context applicationContext, Handler handler) {
+        final StkMenuConfig config = getInstance(applicationContext);
+        handler.post(config::getIndex);
+    }
+
     /**
      * Returns a preset label, if exists.
      */
     public String getLabel(int slotId) {
-        findConfig(slotId);
+        Config config = findConfig(slotId);
 
-        if (DBG) CatLog.d(LOG_TAG, "getLabel: " + mConfigs[slotId].label + ", slot id: " + slotId);
-        return mConfigs[slotId].label;
+        if (DBG) CatLog.d(LOG_TAG, "getLabel: " + config.label + ", slot id: " + slotId);
+        return config.label;
     }
 
     /**
      * Returns a preset icon, if exists.
      */
     public Bitmap getIcon(int slotId) {
-        findConfig(slotId);
+        Config config = findConfig(slotId);
 
         Bitmap bitmap = null;
-        if (mConfigs[slotId].icon != null) {
-            int resId = mContext.getResources().getIdentifier(mConfigs[slotId].icon,
-                    RESOURCE_TYPE, mContext.getPackageName());
-            bitmap = resId == UNSPECIFIED ? null :
-                    BitmapFactory.decodeResource(mContext.getResources(), resId);
+        if (config.icon != null) {
+            bitmap = StkBitmapCache.getInstance(mContext).getBitmap(config.icon);
         }
-        if (DBG) CatLog.d(LOG_TAG, "getIcon: " + mConfigs[slotId].icon + ", slot id: " + slotId);
+        if (DBG) CatLog.d(LOG_TAG, "getIcon: " + config.icon + ", slot id: " + slotId);
         return bitmap;
     }
 
-    private void findConfig(int slotId) {
+    /**
+     * Returns the generation of the configs, which is changed when the preset label
+     * and icon returned for a slot might be changed.
+     */
+    public int getGeneration() {
+        return mGeneration;
+    }
+
+    /*
+     * The config found for each slot is kept until the subscriptions are changed,
+     * so that the subscription and the SIM operator need not be queried every time.
+     */
+    private synchronized Config findConfig(int slotId) {
+        if (mConfigs[slotId] != null) {
+            if (DBG) CatLog.d(LOG_TAG, "Return the cached config, slot id: " + slotId);
+            return mConfigs[slotId];
+        }
+
         SubscriptionManager sm = (SubscriptionManager) mContext.getSystemService(
                 Context.TELEPHONY_SUBSCRIPTION_SERVICE);
         SubscriptionInfo info = (sm != null) ? sm.getActiveSubscriptionInfoForSimSlotIndex(slotId)
                 : null;
         if (info == null) {
             mConfigs[slotId] = NO_CONFIG;
-            return;
+            return NO_CONFIG;
         }
 
         TelephonyManager telephony =
@@ -126,36 +178,109 @@ public class StkMenuConfig {
         String operator = telephony.getSimOperator(info.getSubscriptionId());
         if (TextUtils.isEmpty(operator) || (operator.length() < 5)) {
             mConfigs[slotId] = NO_CONFIG;
-            return;
+            return NO_CONFIG;
         }
 
         int mcc = Integer.parseInt(operator.substring(0, 3));
         int mnc = Integer.parseInt(operator.substring(3));
 
-        if (mConfigs[slotId] != null && mConfigs[slotId].mcc == mcc
-                && mConfigs[slotId].mnc == mnc) {
-            if (DBG) CatLog.d(LOG_TAG, "Return the cached config, slot id: " + slotId);
-            return;
+        if (DBG) CatLog.d(LOG_TAG, "Find config and create the cached config, slot id: " + slotId);
+        Config config = getIndex().get(pack(mcc, mnc));
+        if (config == null) {
+            config = new Config(mcc, mnc, null, null);
         }
+        mConfigs[slotId] = config;
+        return config;
+    }
 
-        if (DBG) CatLog.d(LOG_TAG, "Find config and create the cached config, slot id: " + slotId);
-        for (Config config : mArray) {
-            if ((config.mcc == mcc) && (config.mnc == mnc)) {
-                mConfigs[slotId] = config;
-                return;
-            }
+    private synchronized void invalidateConfigs() {
+        if (DBG) CatLog.d(LOG_TAG, "Invalidate the cached configs");
+        for (int slot = 0; slot < mConfigs.length; slot++) {
+            mConfigs[slot] = null;
         }
+        mGeneration++;
+    }
+
+    private static int pack(int mcc, int mnc) {
+        return mcc * 1000 + mnc;
+    }
 
-        mConfigs[slotId] = new Config(mcc, mnc, null, null);
+    private SparseArray<Config> getIndex() {
+        synchronized (mIndexLock) {
+            if (mIndex == null) {
+                mIndex = loadIndex();
+            }
+            return mIndex;
+        }
     }
 
     private void initialize(Context context) {
         mContext = context;
-        mArray = new ArrayList<Config>();
         mConfigs = new Config[TelephonyManager.from(mContext).getSupportedModemCount()];
 
-        XmlResourceParser parser = mContext.getResources().getXml(R.xml.menu_conf);
+        SubscriptionManager sm = (SubscriptionManager) mContext.getSystemService(
+                Context.TELEPHONY_SUBSCRIPTION_SERVICE);
+        if (sm != null) {
+            sm.addOnSubscriptionsChangedListener(Runnable::run,
+                    new SubscriptionManager.OnSubscriptionsChangedListener() {
+                        @Override
+                        public void onSubscriptionsChanged() {
+                            invalidateConfigs();
+                        }
+                    });
+        }
+    }
 
+    private SparseArray<Config> loadIndex() {
+        long start = SystemClock.elapsedRealtime();
+        AtomicFile file = new AtomicFile(new File(mContext.getCodeCacheDir(),
+                COMPILED_FILE_NAME));
+        long checksum = getResourceChecksum();
+        SparseArray<Config> index = null;
+        try (InputStream in = file.openRead()) {
+            index = readCompiled(in, checksum);
+        } catch (FileNotFoundException e) {
+            // Not compiled yet.
+        } catch (IOException e) {
+            CatLog.e(LOG_TAG, "Failed to read the compiled configs: " + e);
+        }
+
+        boolean isCompiled = (index != null);
+        if (!isCompiled) {
+            index = new SparseArray<Config>();
+            if (parseXml(mContext.getResources().getXml(R.xml.menu_conf), index)) {
+                writeCompiled(file, checksum, index);
+            }
+        }
+
+        CatLog.d(LOG_TAG, "Loaded " + index.size() + " configs in "
+                + (SystemClock.elapsedRealtime() - start) + " ms, compiled: " + isCompiled);
+        return index;
+    }
+
+    /*
+     * Returns the checksum of menu_conf in its binary form, which is resolved through
+     * the overlays currently enabled. Reading the bytes is much cheaper than parsing them.
+     */
+    private long getResourceChecksum() {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = mContext.getResources().openRawResource(R.xml.menu_conf)) {
+            int length;
+            while ((length = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, length);
+            }
+        } catch (IOException | RuntimeException e) {
+            CatLog.e(LOG_TAG, "Failed to read menu_conf: " + e);
+        }
+        return crc.getValue();
+    }
+
+    /*
+     * Parses menu_conf into the specified index, and returns true if the whole file is parsed.
+     */
+    static boolean parseXml(XmlResourceParser parser, SparseArray<Config> index) {
+        boolean isParsed = false;
         try {
             XmlUtils.beginDocument(parser, XML_OPERATORS_TAG);
 
@@ -176,13 +301,135 @@ public class StkMenuConfig {
                 String label = parser.getAttributeValue(null, XML_LABEL_ATTR);
                 String icon = parser.getAttributeValue(null, XML_ICON_ATTR);
 
-                Config config = new Config(mcc, mnc, label, icon);
-                mArray.add(config);
+                // The first entry takes precedence if the same mcc/mnc is listed twice.
+                int key = pack(mcc, mnc);
+                if (index.indexOfKey(key) < 0) {
+                    index.put(key, new Config(mcc, mnc, label, icon));
+                }
             } while (true);
+            isParsed = true;
         } catch (Exception e) {
             CatLog.e(LOG_TAG, "Something wrong happened while interpreting the xml file" + e);
         } finally {
             parser.close();
         }
+        return isParsed;
+    }
+
+    private static void writeCompiled(AtomicFile file, long checksum,
+            SparseArray<Config> index) {
+        FileOutputStream out = null;
+        try {
+            out = file.startWrite();
+            writeCompiled(out, checksum, index);
+            file.finishWrite(out);
+        } catch (IOException e) {
+            CatLog.e(LOG_TAG, "Failed to write the compiled configs: " + e);
+            if (out != null) {
+                file.failWrite(out);
+            }
+        }
+    }
+
+    /*
+     * Writes the index as the checksum of the resource, the sorted keys, the indexes of
+     * the label and the icon in the string pool for each key, and the string pool.
+     */
+    static void writeCompiled(OutputStream out, long checksum, SparseArray<Config> index)
+            throws IOException {
+        int size = index.size();
+        int[] labels = new int[size];
+        int[] icons = new int[size];
+        ArrayList<String> pool = new ArrayList<String>();
+        HashMap<String, Integer> poolIndex = new HashMap<String, Integer>();
+        for (int i = 0; i < size; i++) {
+            Config config = index.valueAt(i);
+            labels[i] = addToPool(config.label, pool, poolIndex);
+            icons[i] = addToPool(config.icon, pool, poolIndex);
+        }
+
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(COMPILED_MAGIC);
+        data.writeInt(COMPILED_VERSION);
+        data.writeLong(checksum);
+        data.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            data.writeInt(index.keyAt(i));
+        }
+        for (int i = 0; i < size; i++) {
+            data.writeInt(labels[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            data.writeInt(icons[i]);
+        }
+        data.writeInt(pool.size());
+        for (String str : pool) {
+            data.writeUTF(str);
+        }
+        data.flush();
+    }
+
+    private static int addToPool(String str, ArrayList<String> pool,
+            HashMap<String, Integer> poolIndex) {
+        if (str == null) {
+            return NO_STRING;
+        }
+        Integer i = poolIndex.get(str);
+        if (i == null) {
+            i = pool.size();
+            pool.add(str);
+            poolIndex.put(str, i);
+        }
+        return i;
+    }
+
+    /*
+     * Reads the index written by writeCompiled, or returns null if it was compiled from
+     * the resource with another checksum.
+     */
+    static SparseArray<Config> readCompiled(InputStream in, long checksum) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != COMPILED_MAGIC || data.readInt() != COMPILED_VERSION) {
+            throw new IOException("Unknown format");
+        }
+        if (data.readLong() != checksum) {
+            CatLog.d(LOG_TAG, "The compiled configs are stale");
+            return null;
+        }
+        int size = data.readInt();
+        int[] keys = new int[size];
+        int[] labels = new int[size];
+        int[] icons = new int[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = data.readInt();
+        }
+        for (int i = 0; i < size; i++) {
+            labels[i] = data.readInt();
+        }
+        for (int i = 0; i < size; i++) {
+            icons[i] = data.readInt();
+        }
+        String[] pool = new String[data.readInt()];
+        for (int i = 0; i < pool.length; i++) {
+            pool[i] = data.readUTF();
+        }
+
+        SparseArray<Config> index = new SparseArray<Config>(size);
+        for (int i = 0; i < size; i++) {
+            // The keys are written in ascending order.
+            index.append(keys[i], new Config(keys[i] / 1000, keys[i] % 1000,
+                    getFromPool(pool, labels[i]), getFromPool(pool, icons[i])));
+        }
+        return index;
+    }
+
+    private static String getFromPool(String[] pool, int i) throws IOException {
+        if (i == NO_STRING) {
+            return null;
+        }
+        if (i < 0 || i >= pool.length) {
+            throw new IOException("Invalid string index: " + i);
+        }
+        return pool[i];
     }
 }
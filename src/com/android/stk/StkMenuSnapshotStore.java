@@ -0,0 +1,421 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.stk;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.telephony.SubscriptionInfo;
+import android.telephony.SubscriptionManager;
+import android.text.TextUtils;
+import android.util.AtomicFile;
+
+import com.android.internal.telephony.cat.CatLog;
+import com.android.internal.telephony.cat.Item;
+import com.android.internal.telephony.cat.Menu;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Persists the main menu of SET-UP MENU command for each card, so that it can be
+ * displayed before the card sends the command again after the process is restarted.
+ *
+ * The snapshot is identified by the hash of the ICCID. The snapshots are loaded once on
+ * a worker thread and served from memory, and written on the worker thread only when the
+ * main menu of the card is changed. The snapshot can be used only for displaying,
+ * as no command is associated with it.
+ */
+final class StkMenuSnapshotStore {
+    private static final String LOG_TAG = StkMenuSnapshotStore.class.getSimpleName();
+
+    private static final String DIRECTORY_NAME = "menu_snapshots";
+    private static final int VERSION = 1;
+
+    private static final Object sLock = new Object();
+    private static StkMenuSnapshotStore sInstance;
+    private static File sDirectoryForTesting = null;
+
+    private final Context mContext;
+    private final File mDirectory;
+    private final Handler mHandler;
+
+    // The card identity and the snapshot of its main menu for each slot.
+    private final String[] mIccIds;
+    private final Menu[] mMenus;
+    // Whether the snapshot has been loaded or replaced with the latest main menu for each slot.
+    private final boolean[] mIsLoaded;
+    private Runnable mOnLoadedCallback = null;
+    private SubscriptionManager.OnSubscriptionsChangedListener mSubscriptionsListener = null;
+
+    // Statistics
+    private int mLoadCount = 0;
+    private int mWriteCount = 0;
+
+    private StkMenuSnapshotStore(Context context, int slotCount) {
+        mContext = context;
+        mDirectory = (sDirectoryForTesting != null) ? sDirectoryForTesting
+                : new File(context.getFilesDir(), DIRECTORY_NAME);
+        mIccIds = new String[slotCount];
+        mMenus = new Menu[slotCount];
+        mIsLoaded = new boolean[slotCount];
+        HandlerThread thread = new HandlerThread("StkMenuSnapshotStore");
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    static StkMenuSnapshotStore getInstance(Context applicationContext, int slotCount) {
+        synchronized (sLock) {
+            if (sInstance == null) {
+                sInstance = new StkMenuSnapshotStore(applicationContext, slotCount);
+            }
+            return sInstance;
+        }
+    }
+
+    /*
+     * Discards the instance after the pending writes are done, so that the snapshots are
+     * loaded from the storage again as after the process is restarted. Used only by the tests.
+     */
+    static void resetForTesting() {
+        synchronized (sLock) {
+            if (sInstance != null) {
+                final StkMenuSnapshotStore store = sInstance;
+                store.mHandler.runWithScissors(() -> store.updateSubscriptionsListener(false), 0);
+                store.mHandler.getLooper().quit();
+                sInstance = null;
+            }
+        }
+    }
+
+    /*
+     * Saves the snapshots in the specified directory instead of the default one, or in the
+     * default one again if null is specified, so that the main menus made by the tests never
+     * replace the ones of the inserted cards. The snapshots are loaded again from
+     * the directory. Used only by the tests.
+     */
+    static void setDirectoryForTesting(File directory) {
+        synchronized (sLock) {
+            resetForTesting();
+            sDirectoryForTesting = directory;
+        }
+    }
+
+    /**
+     * Returns the handler of the worker thread, which also serves the other light
+     * background work of the service, e.g. preloading the preset menu configs.
+     */
+    Handler getHandler() {
+        return mHandler;
+    }
+
+    /**
+     * Sets the callback run on the worker thread every time the loading is done.
+     */
+    synchronized void setOnLoadedCallback(Runnable callback) {
+        mOnLoadedCallback = callback;
+    }
+
+    /**
+     * Loads the snapshots of the inserted cards on the worker thread. The slots whose card
+     * cannot be identified yet are loaded again when the subscriptions are changed.
+     */
+    void load() {
+        mHandler.post(this::loadPendingSlots);
+    }
+
+    /**
+     * Returns the main menu saved last time for the card inserted in the specified slot,
+     * or null if it is not available or not loaded yet. This never accesses the storage.
+     */
+    synchronized Menu getMenu(int slotId) {
+        return (slotId >= 0 && slotId < mMenus.length) ? mMenus[slotId] : null;
+    }
+
+    /**
+     * Saves the main menu of the card inserted in the specified slot.
+     */
+    void save(int slotId, Menu menu) {
+        if (menu == null || slotId < 0 || slotId >= mMenus.length) {
+            return;
+        }
+        synchronized (this) {
+            // The card identity is forgotten when the card is removed,
+            // so the same card still holds the same main menu.
+            if (mIccIds[slotId] != null && StkAppService.isSameMenu(mMenus[slotId], menu)) {
+                return;
+            }
+        }
+        String iccId = getIccId(slotId);
+        if (iccId == null) {
+            return;
+        }
+        synchronized (this) {
+            mIsLoaded[slotId] = true;
+            if (iccId.equals(mIccIds[slotId])
+                    && StkAppService.isSameMenu(mMenus[slotId], menu)) {
+                return;
+            }
+            mIccIds[slotId] = iccId;
+            mMenus[slotId] = menu;
+        }
+        final File file = getFile(iccId);
+        mHandler.post(() -> write(file, menu));
+    }
+
+    /**
+     * Removes the main menu of the card inserted in the specified slot.
+     */
+    void remove(int slotId) {
+        String iccId = getIccId(slotId);
+        if (iccId == null) {
+            return;
+        }
+        synchronized (this) {
+            mIsLoaded[slotId] = true;
+            mIccIds[slotId] = iccId;
+            mMenus[slotId] = null;
+        }
+        final File file = getFile(iccId);
+        mHandler.post(() -> new AtomicFile(file).delete());
+    }
+
+    /**
+     * Forgets the card removed from the specified slot. The snapshot of the card inserted
+     * next is loaded again by {@link #load()}.
+     */
+    synchronized void onCardAbsent(int slotId) {
+        if (slotId < 0 || slotId >= mMenus.length) {
+            return;
+        }
+        mIsLoaded[slotId] = false;
+        mIccIds[slotId] = null;
+        mMenus[slotId] = null;
+    }
+
+    private void loadPendingSlots() {
+        boolean hasUnidentifiedCard = false;
+        for (int slot = 0; slot < mMenus.length; slot++) {
+            synchronized (this) {
+                if (mIsLoaded[slot]) {
+                    continue;
+                }
+            }
+            String iccId = getIccId(slot);
+            if (iccId == null) {
+                hasUnidentifiedCard = true;
+                continue;
+            }
+            Menu menu = read(getFile(iccId));
+            synchronized (this) {
+                // The latest main menu saved in the meantime takes precedence.
+                if (!mIsLoaded[slot]) {
+                    mIsLoaded[slot] = true;
+                    mIccIds[slot] = iccId;
+                    mMenus[slot] = menu;
+                    mLoadCount++;
+                }
+            }
+        }
+        updateSubscriptionsListener(hasUnidentifiedCard);
+
+        Runnable callback;
+        synchronized (this) {
+            callback = mOnLoadedCallback;
+        }
+        if (callback != null) {
+            callback.run();
+        }
+    }
+
+    /*
+     * Listens to the subscription changes only while any card cannot be identified.
+     * This is called only on the worker thread.
+     */
+    private void updateSubscriptionsListener(boolean listen) {
+        SubscriptionManager sm = (SubscriptionManager) mContext.getSystemService(
+                Context.TELEPHONY_SUBSCRIPTION_SERVICE);
+        if (sm == null || listen == (mSubscriptionsListener != null)) {
+            return;
+        }
+        if (listen) {
+            mSubscriptionsListener = new SubscriptionManager.OnSubscriptionsChangedListener() {
+                @Override
+                public void onSubscriptionsChanged() {
+                    loadPendingSlots();
+                }
+            };
+            sm.addOnSubscriptionsChangedListener(mHandler::post, mSubscriptionsListener);
+        } else {
+            sm.removeOnSubscriptionsChangedListener(mSubscriptionsListener);
+            mSubscriptionsListener = null;
+        }
+    }
+
+    private String getIccId(int slotId) {
+        if (slotId < 0 || slotId >= mMenus.length) {
+            return null;
+        }
+        SubscriptionManager sm = (SubscriptionManager) mContext.getSystemService(
+                Context.TELEPHONY_SUBSCRIPTION_SERVICE);
+        SubscriptionInfo info = (sm != null) ? sm.getActiveSubscriptionInfoForSimSlotIndex(slotId)
+                : null;
+        if (info == null || TextUtils.isEmpty(info.getIccId())) {
+            return null;
+        }
+        return info.getIccId();
+    }
+
+    private File getFile(String iccId) {
+        // The ICCID is not used as the file name as it is.
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(iccId.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                sb.append(String.format(Locale.US, "%02x", hash[i]));
+            }
+            return new File(mDirectory, sb.toString());
+        } catch (NoSuchAlgorithmException e) {
+            return new File(mDirectory, Integer.toHexString(iccId.hashCode()));
+        }
+    }
+
+    private Menu read(File file) {
+        AtomicFile atomicFile = new AtomicFile(file);
+        if (!atomicFile.exists()) {
+            return null;
+        }
+        try (FileInputStream fis = atomicFile.openRead();
+                DataInputStream in = new DataInputStream(fis)) {
+            if (in.readInt() != VERSION) {
+                return null;
+            }
+            Menu menu = new Menu();
+            menu.title = readString(in);
+            menu.titleIcon = readBitmap(in);
+            menu.titleIconSelfExplanatory = in.readBoolean();
+            menu.itemsIconSelfExplanatory = in.readBoolean();
+            menu.defaultItem = in.readInt();
+            menu.softKeyPreferred = in.readBoolean();
+            menu.helpAvailable = in.readBoolean();
+            int count = in.readInt();
+            menu.items = new ArrayList<Item>(count);
+            for (int i = 0; i < count; i++) {
+                int id = in.readInt();
+                String text = readString(in);
+                Bitmap icon = readBitmap(in);
+                menu.items.add(new Item(id, text, icon));
+            }
+            CatLog.d(LOG_TAG, "Loaded the main menu with " + count + " items");
+            return menu;
+        } catch (IOException | RuntimeException e) {
+            CatLog.e(LOG_TAG, "Failed to read the main menu: " + e);
+            return null;
+        }
+    }
+
+    private void write(File file, Menu menu) {
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            CatLog.e(LOG_TAG, "Failed to create the directory");
+            return;
+        }
+        AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream fos = null;
+        try {
+            fos = atomicFile.startWrite();
+            DataOutputStream out = new DataOutputStream(fos);
+            out.writeInt(VERSION);
+            writeString(out, menu.title);
+            writeBitmap(out, menu.titleIcon);
+            out.writeBoolean(menu.titleIconSelfExplanatory);
+            out.writeBoolean(menu.itemsIconSelfExplanatory);
+            out.writeInt(menu.defaultItem);
+            out.writeBoolean(menu.softKeyPreferred);
+            out.writeBoolean(menu.helpAvailable);
+            int count = (menu.items != null) ? menu.items.size() : 0;
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                Item item = menu.items.get(i);
+                out.writeInt(item != null ? item.id : 0);
+                writeString(out, item != null ? item.text : null);
+                writeBitmap(out, item != null ? item.icon : null);
+            }
+            out.flush();
+            atomicFile.finishWrite(fos);
+            synchronized (this) {
+                mWriteCount++;
+            }
+        } catch (IOException e) {
+            CatLog.e(LOG_TAG, "Failed to write the main menu: " + e);
+            atomicFile.failWrite(fos);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static Bitmap readBitmap(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length <= 0) {
+            return null;
+        }
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return BitmapFactory.decodeByteArray(data, 0, length);
+    }
+
+    private static void writeBitmap(DataOutputStream out, Bitmap bitmap) throws IOException {
+        if (bitmap == null) {
+            out.writeInt(0);
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, bytes);
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+    }
+
+    synchronized void dump(PrintWriter pw) {
+        pw.println("StkMenuSnapshotStore: loads=" + mLoadCount + " writes=" + mWriteCount);
+        for (int slot = 0; slot < mMenus.length; slot++) {
+            pw.println("  slot " + slot + ": " + (mMenus[slot] != null ? "available" : "none")
+                    + (mIsLoaded[slot] ? "" : " (not loaded)"));
+        }
+    }
+}
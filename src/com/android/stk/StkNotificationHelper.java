@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.stk;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.text.TextUtils;
+
+import com.android.internal.telephony.cat.CatLog;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * Manages the notification channel and the idle mode text notifications.
+ *
+ * The channel is created once for each locale, as its name is localized. The content of
+ * the idle mode text notification is kept for each slot, and the notification is posted
+ * only if the content is changed.
+ */
+final class StkNotificationHelper {
+    private static final String LOG_TAG = StkNotificationHelper.class.getSimpleName();
+
+    // Notification channel containing all mobile service messages notifications.
+    static final String CHANNEL_ID = "mobileServiceMessages";
+
+    private static final long[] VIBRATION_PATTERN = new long[] { 0, 350, 250, 350 };
+
+    private static final class IdleText {
+        final String title;
+        final String text;
+        final boolean showText;
+        final Bitmap icon;
+
+        IdleText(String title, String text, boolean showText, Bitmap icon) {
+            this.title = title;
+            this.text = text;
+            this.showText = showText;
+            this.icon = icon;
+        }
+
+        boolean isSameAs(IdleText other) {
+            return other != null && TextUtils.equals(title, other.title)
+                    && TextUtils.equals(text, other.text) && showText == other.showText
+                    && (icon == other.icon
+                    || (icon != null && other.icon != null && icon.sameAs(other.icon)));
+        }
+    }
+
+    private final Context mContext;
+    private final NotificationManager mNotificationManager;
+    private final IdleText[] mIdleTexts;
+    private Locale mChannelLocale = null;
+
+    // Statistics
+    private int mIdleTextRequestCount = 0;
+    private int mIdleTextPostCount = 0;
+
+    StkNotificationHelper(Context context, NotificationManager notificationManager,
+            int slotCount) {
+        mContext = context;
+        mNotificationManager = notificationManager;
+        mIdleTexts = new IdleText[slotCount];
+    }
+
+    /** Creates the notification channel and registers it with NotificationManager,
+     * unless it has already been done for the current locale.
+     * If a channel with the same ID is already registered, NotificationManager will
+     * rename it.
+     */
+    synchronized void createChannelsIfNecessary() {
+        Locale locale = mContext.getResources().getConfiguration().getLocales().get(0);
+        if (locale.equals(mChannelLocale)) {
+            return;
+        }
+        NotificationChannel notificationChannel = new NotificationChannel(
+                CHANNEL_ID,
+                mContext.getResources().getString(R.string.stk_channel_name),
+                NotificationManager.IMPORTANCE_DEFAULT);
+
+        notificationChannel.enableVibration(true);
+        notificationChannel.setVibrationPattern(VIBRATION_PATTERN);
+
+        mNotificationManager.createNotificationChannel(notificationChannel);
+        mChannelLocale = locale;
+        CatLog.d(LOG_TAG, "Created the notification channel for " + locale);
+    }
+
+    /**
+     * Shows the idle mode text notification for the specified slot if its content is changed.
+     *
+     * @param title content title, or null if no title is displayed.
+     * @param showText whether the text is displayed in the status bar and the body.
+     * @param icon large icon, or null if the default icon is displayed.
+     */
+    synchronized void showIdleText(int slotId, int notificationId, String title, String text,
+            boolean showText, Bitmap icon) {
+        mIdleTextRequestCount++;
+        IdleText idleText = new IdleText(title, text, showText, icon);
+        if (idleText.isSameAs(mIdleTexts[slotId])) {
+            CatLog.d(LOG_TAG, "Idle mode text is not changed, slot id: " + slotId);
+            return;
+        }
+
+        createChannelsIfNecessary();
+        PendingIntent pendingIntent = PendingIntent.getService(mContext, 0,
+                new Intent(mContext, StkAppService.class), PendingIntent.FLAG_IMMUTABLE);
+        final Notification.Builder notificationBuilder = new Notification.Builder(
+                mContext, CHANNEL_ID);
+        if (title != null) {
+            notificationBuilder.setContentTitle(title);
+        }
+        notificationBuilder
+                .setSmallIcon(R.drawable.stat_notify_sim_toolkit);
+        notificationBuilder.setContentIntent(pendingIntent);
+        notificationBuilder.setOngoing(true);
+        notificationBuilder.setOnlyAlertOnce(true);
+        // Set text and icon for the status bar and notification body.
+        if (showText) {
+            notificationBuilder.setContentText(text);
+            notificationBuilder.setTicker(text);
+            notificationBuilder.setStyle(new Notification.BigTextStyle(notificationBuilder)
+                    .bigText(text));
+        }
+        if (icon != null) {
+            notificationBuilder.setLargeIcon(icon);
+        } else {
+            notificationBuilder.setLargeIcon(StkBitmapCache.getInstance(
+                    mContext.getApplicationContext())
+                    .getBitmap(R.drawable.stat_notify_sim_toolkit));
+        }
+        notificationBuilder.setColor(mContext.getResources().getColor(
+                com.android.internal.R.color.system_notification_accent_color));
+        mNotificationManager.notify(notificationId, notificationBuilder.build());
+        mIdleTexts[slotId] = idleText;
+        mIdleTextPostCount++;
+    }
+
+    /**
+     * Cancels the idle mode text notification for the specified slot.
+     */
+    synchronized void cancelIdleText(int slotId, int notificationId) {
+        mNotificationManager.cancel(notificationId);
+        mIdleTexts[slotId] = null;
+    }
+
+    synchronized void dump(PrintWriter pw) {
+        pw.println("StkNotificationHelper: channelLocale=" + mChannelLocale
+                + " idleTextRequests=" + mIdleTextRequestCount
+                + " idleTextPosts=" + mIdleTextPostCount);
+    }
+}
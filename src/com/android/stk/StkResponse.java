@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.stk;
+
+import android.os.Bundle;
+
+/**
+ * Immutable user response passed from the UI components to StkAppService.
+ *
+ * The responses without any user input are shared instances, so that no object is
+ * allocated for them. A response can also be created from the extras of the intent
+ * sent by startService.
+ */
+final class StkResponse {
+    // The shared responses without any user input, indexed by the response id.
+    private static final int POOL_SIZE = StkAppService.RES_ID_ERROR + 1;
+    private static final StkResponse[] sPool = new StkResponse[POOL_SIZE];
+    private static final StkResponse[] sConfirmedPool = new StkResponse[POOL_SIZE];
+    private static final StkResponse sHelpInput =
+            new StkResponse(StkAppService.RES_ID_INPUT, 0, null, true, false, 0);
+    private static final StkResponse sChoiceYes =
+            new StkResponse(StkAppService.RES_ID_CHOICE, 0, null, false, false,
+                    StkAppService.YES);
+    private static final StkResponse sChoiceNo =
+            new StkResponse(StkAppService.RES_ID_CHOICE, 0, null, false, false,
+                    StkAppService.NO);
+
+    static {
+        for (int resId = 0; resId < POOL_SIZE; resId++) {
+            sPool[resId] = new StkResponse(resId, 0, null, false, false, 0);
+            sConfirmedPool[resId] = new StkResponse(resId, 0, null, false, true, 0);
+        }
+    }
+
+    final int resId;
+    final int menuSelection;
+    final String input;
+    final boolean help;
+    final boolean confirmed;
+    final int choice;
+
+    private StkResponse(int resId, int menuSelection, String input, boolean help,
+            boolean confirmed, int choice) {
+        this.resId = resId;
+        this.menuSelection = menuSelection;
+        this.input = input;
+        this.help = help;
+        this.confirmed = confirmed;
+        this.choice = choice;
+    }
+
+    /**
+     * Returns the response without any user input.
+     */
+    static StkResponse of(int resId) {
+        return of(resId, false);
+    }
+
+    /**
+     * Returns the response with the confirmation by the user.
+     */
+    static StkResponse of(int resId, boolean confirmed) {
+        if (resId >= 0 && resId < POOL_SIZE) {
+            return confirmed ? sConfirmedPool[resId] : sPool[resId];
+        }
+        return new StkResponse(resId, 0, null, false, confirmed, 0);
+    }
+
+    /**
+     * Returns the response for the item selected by the user.
+     */
+    static StkResponse ofMenuSelection(int itemId, boolean help) {
+        return new StkResponse(StkAppService.RES_ID_MENU_SELECTION, itemId, null, help, false, 0);
+    }
+
+    /**
+     * Returns the response for the text entered by the user.
+     */
+    static StkResponse ofInput(String input, boolean help) {
+        if (input == null) {
+            return help ? sHelpInput : sPool[StkAppService.RES_ID_INPUT];
+        }
+        return new StkResponse(StkAppService.RES_ID_INPUT, 0, input, help, false, 0);
+    }
+
+    /**
+     * Returns the response for the choice made by the user.
+     */
+    static StkResponse ofChoice(int choice) {
+        if (choice == StkAppService.YES) {
+            return sChoiceYes;
+        }
+        if (choice == StkAppService.NO) {
+            return sChoiceNo;
+        }
+        return new StkResponse(StkAppService.RES_ID_CHOICE, 0, null, false, false, choice);
+    }
+
+    /**
+     * Returns the response from the extras of the intent sent by startService.
+     */
+    static StkResponse fromBundle(Bundle args) {
+        return new StkResponse(args.getInt(StkAppService.RES_ID),
+                args.getInt(StkAppService.MENU_SELECTION),
+                args.getString(StkAppService.INPUT),
+                args.getBoolean(StkAppService.HELP, false),
+                args.getBoolean(StkAppService.CONFIRMATION),
+                args.getInt(StkAppService.CHOICE));
+    }
+}
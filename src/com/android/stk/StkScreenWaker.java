@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.stk;
+
+import android.app.KeyguardManager;
+import android.content.Context;
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+import com.android.internal.telephony.cat.CatLog;
+
+import java.io.PrintWriter;
+
+/**
+ * Turns on the screen when the user needs to see a message from the card.
+ *
+ * The system services and the wake lock are created once and reused. The screen is not
+ * turned on again for a slot within a short interval if it is still on, so that a card
+ * repeatedly sending commands does not cause a wake lock operation every time.
+ */
+final class StkScreenWaker {
+    private static final String LOG_TAG = StkScreenWaker.class.getSimpleName();
+
+    // The minimum interval between the wake-ups for the same slot.
+    private static final long MIN_WAKE_UP_INTERVAL_MS = 5000;
+
+    private final PowerManager mPowerManager;
+    private final KeyguardManager mKeyguardManager;
+    private final PowerManager.WakeLock mWakeLock;
+    private final long[] mLastWakeUpTime;
+
+    // Statistics
+    private int mRequestedCount = 0;
+    private int mPerformedCount = 0;
+
+    StkScreenWaker(Context context, int slotCount) {
+        mPowerManager = context.getSystemService(PowerManager.class);
+        mKeyguardManager = context.getSystemService(KeyguardManager.class);
+        mWakeLock = mPowerManager.newWakeLock(PowerManager.FULL_WAKE_LOCK
+                | PowerManager.ACQUIRE_CAUSES_WAKEUP | PowerManager.ON_AFTER_RELEASE, LOG_TAG);
+        mWakeLock.setReferenceCounted(false);
+        mLastWakeUpTime = new long[slotCount];
+    }
+
+    boolean isKeyguardLocked() {
+        return mKeyguardManager.isKeyguardLocked();
+    }
+
+    /**
+     * Turns on the screen for the specified slot, unless it was already done recently
+     * and the screen is still on.
+     */
+    synchronized void wakeUp(int slotId) {
+        mRequestedCount++;
+        long now = SystemClock.elapsedRealtime();
+        if (mLastWakeUpTime[slotId] != 0
+                && now - mLastWakeUpTime[slotId] < MIN_WAKE_UP_INTERVAL_MS
+                && mPowerManager.isInteractive()) {
+            CatLog.d(LOG_TAG, "Skip the wake-up, slot id: " + slotId);
+            return;
+        }
+        mLastWakeUpTime[slotId] = now;
+        mPerformedCount++;
+        mWakeLock.acquire();
+        mWakeLock.release();
+    }
+
+    synchronized void dump(PrintWriter pw) {
+        pw.println("StkScreenWaker: requested=" + mRequestedCount
+                + " performed=" + mPerformedCount);
+    }
+}
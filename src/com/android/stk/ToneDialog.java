@@ -94,7 +94,7 @@ public class ToneDialog extends Activity {
 
         StkAppService appService = StkAppService.getInstance();
         // Finish the activity if the specified duration is too short and timed-out already.
-        if (appService != null && (appService.isNoTonePlaying())) {
+        if (appService != null && (appService.isNoTonePlaying(mSlotId))) {
             finish();
         }
     }
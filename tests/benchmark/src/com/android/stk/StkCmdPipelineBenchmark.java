@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.stk;
+
+import static com.android.internal.telephony.cat.CatCmdMessage.SetupEventListConstants.IDLE_SCREEN_AVAILABLE_EVENT;
+import static com.android.internal.telephony.cat.CatCmdMessage.SetupEventListConstants.LANGUAGE_SELECTION_EVENT;
+import static com.android.internal.telephony.cat.CatCmdMessage.SetupEventListConstants.USER_ACTIVITY_EVENT;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.android.internal.telephony.cat.AppInterface;
+import com.android.internal.telephony.cat.CatCmdMessage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Drives the proactive command handling of StkAppService with synthetic command streams,
+ * through a stand-in of CatService. Each iteration hands over a burst of commands and waits
+ * until the service handler has handled all of them, so the time and the allocations
+ * reported for an iteration cover {@link #BURST_SIZE} commands.
+ *
+ * The interactive commands are handled while another command is in progress, so that
+ * they are queued or rejected without launching any activity.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StkCmdPipelineBenchmark {
+    private static final int SLOT_ID = 0;
+    private static final int BURST_SIZE = 20;
+    private static final int MENU_ITEM_COUNT = 10;
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private Context mContext;
+    private StkAppService mService;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mService = StkTestUtils.startService(mContext, mock(AppInterface.class), 1);
+    }
+
+    @After
+    public void tearDown() {
+        StkTestUtils.stopService(mContext);
+    }
+
+    @Test
+    public void timeSetUpMenu() {
+        CatCmdMessage[] cmds = new CatCmdMessage[BURST_SIZE];
+        for (int i = 0; i < cmds.length; i++) {
+            cmds[i] = StkTestUtils.mockMenuCmd(AppInterface.CommandType.SET_UP_MENU,
+                    StkTestUtils.createMenu("Menu " + (i % 2), MENU_ITEM_COUNT));
+        }
+        runBurst(cmds);
+    }
+
+    @Test
+    public void timeSelectItemBurst() {
+        CatCmdMessage[] cmds = new CatCmdMessage[BURST_SIZE];
+        for (int i = 0; i < cmds.length; i++) {
+            cmds[i] = StkTestUtils.mockMenuCmd(AppInterface.CommandType.SELECT_ITEM,
+                    StkTestUtils.createMenu("Select " + i, MENU_ITEM_COUNT));
+        }
+        holdCmdInProgress();
+        runBurst(cmds);
+    }
+
+    @Test
+    public void timeDisplayTextFlood() {
+        CatCmdMessage[] cmds = new CatCmdMessage[BURST_SIZE];
+        for (int i = 0; i < cmds.length; i++) {
+            cmds[i] = StkTestUtils.mockTextCmd(AppInterface.CommandType.DISPLAY_TEXT,
+                    "Text " + i);
+            // Every fourth command jumps the queue.
+            cmds[i].geTextMessage().isHighPriority = (i % 4 == 0);
+        }
+        holdCmdInProgress();
+        runBurst(cmds);
+    }
+
+    @Test
+    public void timeSetUpEventListChurn() {
+        final int[][] eventLists = {
+            {USER_ACTIVITY_EVENT, IDLE_SCREEN_AVAILABLE_EVENT},
+            {LANGUAGE_SELECTION_EVENT},
+            {IDLE_SCREEN_AVAILABLE_EVENT, LANGUAGE_SELECTION_EVENT},
+            {},
+        };
+        CatCmdMessage[] cmds = new CatCmdMessage[BURST_SIZE];
+        for (int i = 0; i < cmds.length; i++) {
+            cmds[i] = StkTestUtils.mockCmd(AppInterface.CommandType.SET_UP_EVENT_LIST);
+            CatCmdMessage.SetupEventListSettings settings =
+                    cmds[i].new SetupEventListSettings();
+            settings.eventList = eventLists[i % eventLists.length];
+            when(cmds[i].getSetEventList()).thenReturn(settings);
+        }
+        runBurst(cmds);
+    }
+
+    private void runBurst(CatCmdMessage[] cmds) {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (CatCmdMessage cmd : cmds) {
+                StkTestUtils.sendCmd(mService, SLOT_ID, cmd);
+            }
+            StkTestUtils.waitForIdle(mService, SLOT_ID);
+
+            state.pauseTiming();
+            clearQueuedCmds();
+            state.resumeTiming();
+        }
+    }
+
+    /*
+     * Makes the service handle the interactive commands as if another one is in progress.
+     */
+    private void holdCmdInProgress() {
+        mService.runOnHandlerForTesting(SLOT_ID,
+                () -> mService.getStkContext(SLOT_ID).mCmdInProgress = true,
+                StkTestUtils.TIMEOUT_MS);
+    }
+
+    private void clearQueuedCmds() {
+        mService.runOnHandlerForTesting(SLOT_ID, () -> {
+            while (mService.getStkContext(SLOT_ID).mCmdsQ.poll() != null) {
+                // Discard the commands queued in the last iteration.
+            }
+        }, StkTestUtils.TIMEOUT_MS);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.stk;
+
+import static org.mockito.Mockito.mock;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Parcel;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.android.internal.telephony.cat.AppInterface;
+import com.android.internal.telephony.cat.Item;
+import com.android.internal.telephony.cat.Menu;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures the allocations to get the main menu of 30 items with icons and no alpha
+ * identifier, compared with the copy through a Parcel made for every call before.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StkMainMenuBenchmark {
+    private static final int SLOT_ID = 0;
+    private static final int MENU_ITEM_COUNT = 30;
+    private static final int ICON_SIZE = 48;
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private Context mContext;
+    private StkAppService mService;
+    private Menu mMenu;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mService = StkTestUtils.startService(mContext, mock(AppInterface.class), 1);
+
+        mMenu = StkTestUtils.createMenu(null, MENU_ITEM_COUNT);
+        for (int i = 0; i < MENU_ITEM_COUNT; i++) {
+            Item item = mMenu.items.get(i);
+            mMenu.items.set(i, new Item(item.id, item.text,
+                    Bitmap.createBitmap(ICON_SIZE, ICON_SIZE, Bitmap.Config.ARGB_8888)));
+        }
+        StkTestUtils.sendCmd(mService, SLOT_ID,
+                StkTestUtils.mockMenuCmd(AppInterface.CommandType.SET_UP_MENU, mMenu));
+        StkTestUtils.waitForIdle(mService, SLOT_ID);
+    }
+
+    @After
+    public void tearDown() {
+        StkTestUtils.stopService(mContext);
+    }
+
+    @Test
+    public void timeGetMainMenu() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            mService.getMainMenu(SLOT_ID);
+        }
+    }
+
+    @Test
+    public void timeCopyMainMenuThroughParcel() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            Parcel parcel = Parcel.obtain();
+            mMenu.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            Menu.CREATOR.createFromParcel(parcel);
+            parcel.recycle();
+        }
+    }
+}
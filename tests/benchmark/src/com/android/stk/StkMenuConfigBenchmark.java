@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.stk;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.res.Resources;
+import android.util.SparseArray;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.android.stk.benchmark.R;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compares the time to load a preset menu config table of 1000 operators
+ * from the xml resource and from the compiled form.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StkMenuConfigBenchmark {
+    private static final long CHECKSUM = 0;
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private Resources mResources;
+    private File mCompiledFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mResources = InstrumentationRegistry.getInstrumentation().getContext().getResources();
+        mCompiledFile = new File(InstrumentationRegistry.getInstrumentation().getContext()
+                .getCacheDir(), "menu_conf_1000.bin");
+        try (OutputStream out = new FileOutputStream(mCompiledFile)) {
+            StkMenuConfig.writeCompiled(out, CHECKSUM, parseXml());
+        }
+    }
+
+    @Test
+    public void timeParseXml() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            parseXml();
+        }
+    }
+
+    @Test
+    public void timeReadCompiled() throws IOException {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            readCompiled();
+        }
+    }
+
+    private SparseArray<StkMenuConfig.Config> parseXml() {
+        SparseArray<StkMenuConfig.Config> index = new SparseArray<StkMenuConfig.Config>();
+        assertThat(StkMenuConfig.parseXml(mResources.getXml(R.xml.menu_conf_1000), index))
+                .isTrue();
+        return index;
+    }
+
+    private SparseArray<StkMenuConfig.Config> readCompiled() throws IOException {
+        try (InputStream in = new FileInputStream(mCompiledFile)) {
+            return StkMenuConfig.readCompiled(in, CHECKSUM);
+        }
+    }
+}
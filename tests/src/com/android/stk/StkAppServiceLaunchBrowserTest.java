@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.stk;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.provider.Settings;
+import android.telephony.TelephonyManager;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.android.internal.telephony.cat.AppInterface;
+import com.android.internal.telephony.cat.CatCmdMessage;
+import com.android.internal.telephony.cat.LaunchBrowserMode;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Verifies that launching the browser on one slot does not hold the commands of the other.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StkAppServiceLaunchBrowserTest {
+    // Well within the timeout to hold the messages of the slot launching the browser.
+    private static final long OTHER_SLOT_TIMEOUT_MS = 1000;
+
+    private Context mContext;
+    private StkAppService mService;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        TelephonyManager tm = mContext.getSystemService(TelephonyManager.class);
+        assumeTrue(tm.getActiveModemCount() >= 2);
+        assumeTrue(Settings.Global.getInt(mContext.getContentResolver(),
+                Settings.Global.DEVICE_PROVISIONED, 0) != 0);
+        mService = StkTestUtils.startService(mContext, mock(AppInterface.class), 2);
+    }
+
+    @After
+    public void tearDown() {
+        if (mService != null) {
+            StkTestUtils.stopService(mContext);
+        }
+    }
+
+    @Test
+    public void testDisplayTextOnOtherSlotWhileLaunchingBrowser() {
+        CatCmdMessage launchBrowser = StkTestUtils.mockTextCmd(
+                AppInterface.CommandType.LAUNCH_BROWSER, null);
+        CatCmdMessage.BrowserSettings settings = launchBrowser.new BrowserSettings();
+        settings.url = "http://example.com";
+        settings.mode = LaunchBrowserMode.LAUNCH_NEW_BROWSER;
+        when(launchBrowser.getBrowserSettings()).thenReturn(settings);
+
+        // No alpha identifier, so the browser is launched without the confirmation
+        // as soon as the session end is received.
+        StkTestUtils.sendCmd(mService, 0, launchBrowser);
+        StkTestUtils.sendOp(mService, 0, StkAppService.OP_END_SESSION);
+        StkTestUtils.waitFor(() -> !mService.getStkContext(0).launchBrowser
+                && mService.getStkContext(0).mCurrentCmd == launchBrowser);
+
+        CatCmdMessage displayText = StkTestUtils.mockTextCmd(
+                AppInterface.CommandType.DISPLAY_TEXT, "Hello");
+        long start = SystemClock.uptimeMillis();
+        StkTestUtils.sendCmd(mService, 1, displayText);
+        StkTestUtils.waitFor(() -> mService.getStkContext(1).mCurrentCmd == displayText,
+                OTHER_SLOT_TIMEOUT_MS);
+
+        assertThat(SystemClock.uptimeMillis() - start).isLessThan(OTHER_SLOT_TIMEOUT_MS);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.stk;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.android.internal.telephony.cat.AppInterface;
+import com.android.internal.telephony.cat.CatCmdMessage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifies that the handler of the service is ready by the time the service has been
+ * created, so that the first command does not wait for it as it did for up to 100 ms.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StkAppServiceStartupTest {
+    private static final String TAG = StkAppServiceStartupTest.class.getSimpleName();
+    private static final int SLOT_ID = 0;
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        if (StkAppService.getInstance() != null) {
+            StkTestUtils.stopService(mContext);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        StkTestUtils.stopService(mContext);
+    }
+
+    @Test
+    public void testHandlerIsReadyWhenServiceIsCreated() {
+        // The stand-ins are made before the service is started,
+        // as the first one can take long to be made.
+        AppInterface stkService = mock(AppInterface.class);
+        CatCmdMessage cmd = StkTestUtils.mockCmd(AppInterface.CommandType.SET_UP_EVENT_LIST);
+        CatCmdMessage.SetupEventListSettings settings = cmd.new SetupEventListSettings();
+        settings.eventList = new int[0];
+        when(cmd.getSetEventList()).thenReturn(settings);
+
+        // Without any request, so that the command below is the first one.
+        mContext.startService(new Intent(mContext, StkAppService.class));
+        StkTestUtils.waitFor(() -> StkAppService.getInstance() != null);
+        StkAppService service = StkAppService.getInstance();
+
+        assertThat(StkCmdTracer.getInstance().isHandlerReadyOnCreated()).isTrue();
+        assertThat(service.isReadyForRequest()).isTrue();
+
+        service.setStkServiceForTesting(SLOT_ID, stkService);
+        StkTestUtils.sendCmd(service, SLOT_ID, cmd);
+        StkTestUtils.waitFor(() -> StkCmdTracer.getInstance().getFirstCmdLatency() >= 0);
+        Log.i(TAG, "The first command was handled in " + TimeUnit.NANOSECONDS.toMillis(
+                StkCmdTracer.getInstance().getFirstCmdLatency())
+                + " ms after the service started to be created");
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.stk;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.android.internal.telephony.cat.AppInterface;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the latency from the broadcast received by StkCmdReceiver to the request being
+ * handled by the service handler, between the direct handover to the running service
+ * and the handover through startService made for every request before.
+ *
+ * SESSION END is used as the request, as it has no parcelable argument to be sent through
+ * the system server. It is queued without launching any activity while a command is in
+ * progress, so the request is handled when it is in the queue of the slot.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StkCmdReceiverHandoverTest {
+    private static final String TAG = StkCmdReceiverHandoverTest.class.getSimpleName();
+    private static final int SLOT_ID = 0;
+    private static final int ITERATIONS = 20;
+
+    private Context mContext;
+    private StkAppService mService;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mService = StkTestUtils.startService(mContext, mock(AppInterface.class), 1);
+        mService.runOnHandlerForTesting(SLOT_ID,
+                () -> mService.getStkContext(SLOT_ID).mCmdInProgress = true,
+                StkTestUtils.TIMEOUT_MS);
+    }
+
+    @After
+    public void tearDown() {
+        clearQueuedCmds();
+        mService.runOnHandlerForTesting(SLOT_ID,
+                () -> mService.getStkContext(SLOT_ID).mCmdInProgress = false,
+                StkTestUtils.TIMEOUT_MS);
+        StkTestUtils.stopService(mContext);
+    }
+
+    @Test
+    public void testDirectHandoverIsFasterThanStartService() {
+        final StkCmdReceiver receiver = new StkCmdReceiver();
+        final Intent broadcast = new Intent(AppInterface.CAT_SESSION_END_ACTION)
+                .putExtra(StkAppService.SLOT_ID, SLOT_ID);
+        // The intent made by StkCmdReceiver before the direct handover.
+        final Intent toService = new Intent(mContext, StkAppService.class)
+                .putExtra(StkAppService.OPCODE, StkAppService.OP_END_SESSION)
+                .putExtra(StkAppService.SLOT_ID, SLOT_ID);
+
+        long[] direct = new long[ITERATIONS];
+        long[] startService = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            direct[i] = measureNanos(() -> receiver.onReceive(mContext, broadcast));
+            startService[i] = measureNanos(() -> mContext.startService(toService));
+        }
+        long directMedian = median(direct);
+        long startServiceMedian = median(startService);
+        Log.i(TAG, "Median latency in us: direct=" + toMicros(directMedian)
+                + " startService=" + toMicros(startServiceMedian));
+
+        assertThat(directMedian).isLessThan(startServiceMedian);
+    }
+
+    /*
+     * Returns the time from the handover to the request being queued by the service handler.
+     */
+    private long measureNanos(Runnable handover) {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(StkTestUtils.TIMEOUT_MS);
+        handover.run();
+        while (getQueuedCmdCount() == 0) {
+            if (System.nanoTime() > deadline) {
+                fail("Timed out waiting for the request to be handled");
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        clearQueuedCmds();
+        return elapsed;
+    }
+
+    private int getQueuedCmdCount() {
+        final int[] count = new int[1];
+        mService.runOnHandlerForTesting(SLOT_ID,
+                () -> count[0] = mService.getStkContext(SLOT_ID).mCmdsQ.size(),
+                StkTestUtils.TIMEOUT_MS);
+        return count[0];
+    }
+
+    private void clearQueuedCmds() {
+        mService.runOnHandlerForTesting(SLOT_ID, () -> {
+            while (mService.getStkContext(SLOT_ID).mCmdsQ.poll() != null) {
+                // Discard the request queued in the last measurement.
+            }
+        }, StkTestUtils.TIMEOUT_MS);
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.stk;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.mock;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.lifecycle.ActivityLifecycleMonitor;
+import androidx.test.runner.lifecycle.ActivityLifecycleMonitorRegistry;
+import androidx.test.runner.lifecycle.Stage;
+
+import com.android.internal.telephony.cat.AppInterface;
+import com.android.internal.telephony.cat.CatCmdMessage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Counts the registrations of the home key event receiver over a session initiated by the
+ * card, in which every command displays a text and is responded by the user. Each step
+ * registered and unregistered the receiver before.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StkHomeKeyEventTest {
+    private static final String TAG = StkHomeKeyEventTest.class.getSimpleName();
+    private static final int SLOT_ID = 0;
+    private static final int STEPS = 20;
+
+    private Context mContext;
+    private StkAppService mService;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mService = StkTestUtils.startService(mContext, mock(AppInterface.class), 1);
+    }
+
+    @After
+    public void tearDown() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            ActivityLifecycleMonitor monitor = ActivityLifecycleMonitorRegistry.getInstance();
+            for (Stage stage : new Stage[] {Stage.RESUMED, Stage.PAUSED, Stage.STOPPED}) {
+                for (Activity activity : monitor.getActivitiesInStage(stage)) {
+                    if (activity instanceof StkDialogActivity) {
+                        activity.finish();
+                    }
+                }
+            }
+        });
+        StkTestUtils.stopService(mContext);
+    }
+
+    @Test
+    public void testReceiverIsRegisteredOncePerSession() {
+        for (int i = 0; i < STEPS; i++) {
+            CatCmdMessage cmd = StkTestUtils.mockTextCmd(
+                    AppInterface.CommandType.DISPLAY_TEXT, "Step " + i);
+            // Displayed regardless of the screen being busy.
+            cmd.geTextMessage().isHighPriority = true;
+            StkTestUtils.sendCmd(mService, SLOT_ID, cmd);
+            StkTestUtils.waitForIdle(mService, SLOT_ID);
+
+            Bundle args = new Bundle();
+            args.putInt(StkAppService.OPCODE, StkAppService.OP_RESPONSE);
+            args.putInt(StkAppService.SLOT_ID, SLOT_ID);
+            args.putInt(StkAppService.RES_ID, StkAppService.RES_ID_CONFIRM);
+            args.putBoolean(StkAppService.CONFIRMATION, true);
+            mService.handleRequest(args);
+            StkTestUtils.waitForIdle(mService, SLOT_ID);
+        }
+
+        int registrations = mService.getHomeKeyEventRegistrationCountForTesting();
+        int toggles = mService.getHomeKeyEventToggleCountForTesting();
+        Log.i(TAG, "Over " + STEPS + " steps: registrations=" + registrations
+                + " togglesWithoutIpc=" + toggles + ", " + (2 * STEPS)
+                + " registrations and unregistrations before");
+
+        assertThat(registrations).isEqualTo(1);
+        // Armed and disarmed in every step, except for the first registration.
+        assertThat(toggles).isEqualTo(2 * STEPS - 1);
+    }
+}
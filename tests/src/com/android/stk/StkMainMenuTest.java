@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.stk;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+import static org.mockito.Mockito.mock;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.android.internal.telephony.cat.AppInterface;
+import com.android.internal.telephony.cat.Menu;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Verifies that the main menu is shared with the callers, which cannot modify it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StkMainMenuTest {
+    private static final int SLOT_ID = 0;
+    private static final int MENU_ITEM_COUNT = 10;
+
+    private Context mContext;
+    private StkAppService mService;
+    private Menu mMenu;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mService = StkTestUtils.startService(mContext, mock(AppInterface.class), 1);
+        mMenu = StkTestUtils.createMenu(null, MENU_ITEM_COUNT);
+        StkTestUtils.sendCmd(mService, SLOT_ID,
+                StkTestUtils.mockMenuCmd(AppInterface.CommandType.SET_UP_MENU, mMenu));
+        StkTestUtils.waitForIdle(mService, SLOT_ID);
+    }
+
+    @After
+    public void tearDown() {
+        StkTestUtils.stopService(mContext);
+    }
+
+    @Test
+    public void testMainMenuIsSharedAndReadOnly() {
+        Menu menu = mService.getMainMenu(SLOT_ID);
+
+        assertThat(menu).isNotNull();
+        assertThat(mService.getMainMenu(SLOT_ID)).isSameInstanceAs(menu);
+        assertThat(menu.items).hasSize(MENU_ITEM_COUNT);
+        assertThat(menu.items.get(0)).isSameInstanceAs(mMenu.items.get(0));
+        assertThrows(UnsupportedOperationException.class, () -> menu.items.remove(0));
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.stk;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.util.SparseArray;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Verifies the compiled form of the preset menu configs.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StkMenuConfigTest {
+    private static final long CHECKSUM = 0x1234abcdL;
+
+    @Test
+    public void testCompiledFormIsSameAsXml() throws IOException {
+        SparseArray<StkMenuConfig.Config> expected = parseXml();
+        SparseArray<StkMenuConfig.Config> actual = readCompiled(compile(expected), CHECKSUM);
+
+        assertThat(actual).isNotNull();
+        assertThat(actual.size()).isEqualTo(expected.size());
+        for (int i = 0; i < expected.size(); i++) {
+            StkMenuConfig.Config e = expected.valueAt(i);
+            StkMenuConfig.Config a = actual.valueAt(i);
+            assertThat(actual.keyAt(i)).isEqualTo(expected.keyAt(i));
+            assertThat(a.mcc).isEqualTo(e.mcc);
+            assertThat(a.mnc).isEqualTo(e.mnc);
+            assertThat(a.label).isEqualTo(e.label);
+            assertThat(a.icon).isEqualTo(e.icon);
+        }
+    }
+
+    @Test
+    public void testCompiledFormOfOtherResourceIsIgnored() throws IOException {
+        byte[] compiled = compile(parseXml());
+
+        assertThat(readCompiled(compiled, CHECKSUM + 1)).isNull();
+    }
+
+    private static SparseArray<StkMenuConfig.Config> parseXml() {
+        Context context = ApplicationProvider.getApplicationContext();
+        SparseArray<StkMenuConfig.Config> index = new SparseArray<StkMenuConfig.Config>();
+        assertThat(StkMenuConfig.parseXml(context.getResources().getXml(R.xml.menu_conf), index))
+                .isTrue();
+        return index;
+    }
+
+    private static byte[] compile(SparseArray<StkMenuConfig.Config> index) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StkMenuConfig.writeCompiled(out, CHECKSUM, index);
+        return out.toByteArray();
+    }
+
+    private static SparseArray<StkMenuConfig.Config> readCompiled(byte[] compiled, long checksum)
+            throws IOException {
+        return StkMenuConfig.readCompiled(new ByteArrayInputStream(compiled), checksum);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.stk;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Mockito.mock;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.SystemClock;
+import android.telephony.SubscriptionManager;
+import android.util.Log;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.lifecycle.ActivityLifecycleMonitorRegistry;
+import androidx.test.runner.lifecycle.Stage;
+
+import com.android.internal.telephony.cat.AppInterface;
+import com.android.internal.telephony.cat.Menu;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures the time from the start of the service to the main menu saved last time being
+ * displayed, as when the application is launched before the card sends SET-UP MENU again.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StkMenuSnapshotColdStartTest {
+    private static final String TAG = StkMenuSnapshotColdStartTest.class.getSimpleName();
+    private static final int SLOT_ID = 0;
+    private static final int MENU_ITEM_COUNT = 10;
+    // The saved main menu is read on the worker thread, so that no storage access
+    // and no IPC for the card identity is made until the menu is displayed.
+    private static final long COLD_START_TIMEOUT_MS = 2000;
+
+    private Context mContext;
+    private StkAppService mService;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        SubscriptionManager sm = mContext.getSystemService(SubscriptionManager.class);
+        // The snapshot is saved only for the identified card.
+        assumeTrue(sm.getActiveSubscriptionInfoForSimSlotIndex(SLOT_ID) != null);
+
+        mService = StkTestUtils.startService(mContext, mock(AppInterface.class), 1);
+        StkTestUtils.sendCmd(mService, SLOT_ID, StkTestUtils.mockMenuCmd(
+                AppInterface.CommandType.SET_UP_MENU,
+                StkTestUtils.createMenu("Saved", MENU_ITEM_COUNT)));
+        StkTestUtils.waitForIdle(mService, SLOT_ID);
+        // The saved main menu is loaded again from the storage on the next start.
+        StkTestUtils.stopService(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        if (mService == null) {
+            return;
+        }
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            for (Activity activity : ActivityLifecycleMonitorRegistry.getInstance()
+                    .getActivitiesInStage(Stage.RESUMED)) {
+                if (activity instanceof StkMenuActivity) {
+                    activity.finish();
+                }
+            }
+        });
+        StkTestUtils.stopService(mContext);
+        StkTestUtils.deleteMenuSnapshots(mContext);
+    }
+
+    @Test
+    public void testLaunchSavedMainMenuOnColdStart() {
+        long start = SystemClock.uptimeMillis();
+        mService = StkTestUtils.startService(mContext, mock(AppInterface.class), 1);
+        // Launched as soon as the service is ready, which may be before the loading is done.
+        StkTestUtils.sendOp(mService, SLOT_ID, StkAppService.OP_LAUNCH_APP);
+        StkTestUtils.waitFor(() -> mService.getStkContext(SLOT_ID).mMenuIsVisible,
+                COLD_START_TIMEOUT_MS);
+        long elapsed = SystemClock.uptimeMillis() - start;
+        Log.i(TAG, "The saved main menu was displayed in " + elapsed + " ms");
+
+        Menu menu = mService.getMainMenu(SLOT_ID);
+        assertThat(mService.isMainMenuSnapshot(SLOT_ID, menu)).isTrue();
+        assertThat(menu.title).isEqualTo("Saved");
+        assertThat(menu.items).hasSize(MENU_ITEM_COUNT);
+        assertThat(elapsed).isLessThan(COLD_START_TIMEOUT_MS);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.stk;
+
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.SystemClock;
+
+import com.android.internal.telephony.cat.AppInterface;
+import com.android.internal.telephony.cat.CatCmdMessage;
+import com.android.internal.telephony.cat.Item;
+import com.android.internal.telephony.cat.Menu;
+import com.android.internal.telephony.cat.TextMessage;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Helpers to drive StkAppService with synthetic proactive commands and a stand-in
+ * of CatService, so that no terminal response reaches the real card.
+ */
+final class StkTestUtils {
+    static final long TIMEOUT_MS = 5000;
+    private static final String MENU_SNAPSHOT_DIRECTORY_NAME = "test_menu_snapshots";
+
+    private StkTestUtils() {
+    }
+
+    /**
+     * Starts StkAppService and binds a stand-in of CatService to each of the specified slots.
+     * The main menus are saved in the directory for the tests until the service is stopped.
+     */
+    static StkAppService startService(Context context, AppInterface stkService, int slotCount) {
+        StkMenuSnapshotStore.setDirectoryForTesting(getMenuSnapshotDirectory(context));
+        context.startService(new Intent(context, StkAppService.class));
+        waitFor(() -> StkAppService.getInstance() != null
+                && StkAppService.getInstance().isReadyForRequest());
+        StkAppService service = StkAppService.getInstance();
+        for (int slot = 0; slot < slotCount; slot++) {
+            service.setStkServiceForTesting(slot, stkService);
+        }
+        return service;
+    }
+
+    static void stopService(Context context) {
+        context.stopService(new Intent(context, StkAppService.class));
+        waitFor(() -> StkAppService.getInstance() == null);
+        StkMenuSnapshotStore.setDirectoryForTesting(null);
+    }
+
+    /**
+     * Deletes the main menus saved by the tests. This must be called while the service is
+     * not running.
+     */
+    static void deleteMenuSnapshots(Context context) {
+        File[] files = getMenuSnapshotDirectory(context).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private static File getMenuSnapshotDirectory(Context context) {
+        return new File(context.getCacheDir(), MENU_SNAPSHOT_DIRECTORY_NAME);
+    }
+
+    static void sendCmd(StkAppService service, int slotId, CatCmdMessage cmd) {
+        Bundle args = new Bundle();
+        args.putInt(StkAppService.OPCODE, StkAppService.OP_CMD);
+        args.putInt(StkAppService.SLOT_ID, slotId);
+        args.putParcelable(StkAppService.CMD_MSG, cmd);
+        service.handleRequest(args);
+    }
+
+    static void sendOp(StkAppService service, int slotId, int opcode) {
+        Bundle args = new Bundle();
+        args.putInt(StkAppService.OPCODE, opcode);
+        args.putInt(StkAppService.SLOT_ID, slotId);
+        service.handleRequest(args);
+    }
+
+    /**
+     * Waits until the messages already posted for the slot are handled.
+     */
+    static void waitForIdle(StkAppService service, int slotId) {
+        if (!service.runOnHandlerForTesting(slotId, () -> {}, TIMEOUT_MS)) {
+            fail("Timed out waiting for the handler of slot " + slotId);
+        }
+    }
+
+    /**
+     * Creates a stand-in of the command. The invocations are not recorded, so that the command
+     * can be handled many times without growing the memory.
+     */
+    static CatCmdMessage mockCmd(AppInterface.CommandType type) {
+        CatCmdMessage cmd = mock(CatCmdMessage.class, withSettings().stubOnly());
+        when(cmd.getCmdType()).thenReturn(type);
+        return cmd;
+    }
+
+    static CatCmdMessage mockTextCmd(AppInterface.CommandType type, String text) {
+        CatCmdMessage cmd = mockCmd(type);
+        TextMessage message = createTextMessage(text);
+        when(cmd.geTextMessage()).thenReturn(message);
+        return cmd;
+    }
+
+    static CatCmdMessage mockMenuCmd(AppInterface.CommandType type, Menu menu) {
+        CatCmdMessage cmd = mockCmd(type);
+        when(cmd.getMenu()).thenReturn(menu);
+        return cmd;
+    }
+
+    /**
+     * Creates a text message with the default values, whose public fields can be modified.
+     */
+    static TextMessage createTextMessage(String text) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            TextMessage message = TextMessage.CREATOR.createFromParcel(parcel);
+            message.text = text;
+            message.responseNeeded = true;
+            return message;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    static Menu createMenu(String title, int itemCount) {
+        Menu menu = new Menu();
+        menu.title = title;
+        menu.items = new ArrayList<Item>(itemCount);
+        for (int i = 0; i < itemCount; i++) {
+            menu.items.add(new Item(i + 1, "Item " + (i + 1), null));
+        }
+        return menu;
+    }
+
+    static void waitFor(BooleanSupplier condition) {
+        waitFor(condition, TIMEOUT_MS);
+    }
+
+    static void waitFor(BooleanSupplier condition, long timeoutMs) {
+        long deadline = SystemClock.uptimeMillis() + timeoutMs;
+        while (!condition.getAsBoolean()) {
+            if (SystemClock.uptimeMillis() > deadline) {
+                fail("Timed out after " + timeoutMs + " ms");
+            }
+            SystemClock.sleep(10);
+        }
+    }
+}
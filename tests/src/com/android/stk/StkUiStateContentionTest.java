@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.stk;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.mock;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.android.internal.telephony.cat.AppInterface;
+import com.android.internal.telephony.cat.CatCmdMessage;
+import com.android.internal.telephony.cat.Menu;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reads the state of a slot as the UI threads do, while another thread keeps holding the
+ * monitor of the service and the slot keeps handling new main menus. The reads must never
+ * wait for the monitor.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StkUiStateContentionTest {
+    private static final String TAG = StkUiStateContentionTest.class.getSimpleName();
+    private static final int SLOT_ID = 0;
+    private static final int MENU_ITEM_COUNT = 10;
+    private static final long DURATION_MS = 2000;
+    // A read waiting for the monitor would take at least this long.
+    private static final long HOLD_MS = 100;
+
+    private Context mContext;
+    private StkAppService mService;
+    private volatile boolean mIsRunning;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mService = StkTestUtils.startService(mContext, mock(AppInterface.class), 1);
+    }
+
+    @After
+    public void tearDown() {
+        StkTestUtils.stopService(mContext);
+    }
+
+    @Test
+    public void testReadsDoNotWaitForServiceMonitor() throws Exception {
+        final CatCmdMessage[] cmds = {
+            StkTestUtils.mockMenuCmd(AppInterface.CommandType.SET_UP_MENU,
+                    StkTestUtils.createMenu("Menu A", MENU_ITEM_COUNT)),
+            StkTestUtils.mockMenuCmd(AppInterface.CommandType.SET_UP_MENU,
+                    StkTestUtils.createMenu("Menu B", MENU_ITEM_COUNT)),
+        };
+        StkTestUtils.sendCmd(mService, SLOT_ID, cmds[0]);
+        StkTestUtils.waitForIdle(mService, SLOT_ID);
+
+        final AtomicInteger holdCount = new AtomicInteger();
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        mIsRunning = true;
+        Thread holder = new Thread(() -> {
+            while (mIsRunning) {
+                synchronized (mService) {
+                    SystemClock.sleep(HOLD_MS);
+                }
+                holdCount.incrementAndGet();
+                SystemClock.sleep(1);
+            }
+        }, "monitor holder");
+        Thread sender = new Thread(() -> {
+            try {
+                for (int i = 1; mIsRunning; i++) {
+                    StkTestUtils.sendCmd(mService, SLOT_ID, cmds[i % cmds.length]);
+                    StkTestUtils.waitForIdle(mService, SLOT_ID);
+                }
+            } catch (Throwable t) {
+                error.set(t);
+            }
+        }, "command sender");
+        holder.start();
+        sender.start();
+
+        long maxReadNanos = 0;
+        int readCount = 0;
+        long deadline = SystemClock.uptimeMillis() + DURATION_MS;
+        try {
+            while (SystemClock.uptimeMillis() < deadline) {
+                long start = System.nanoTime();
+                StkAppService.StkContext context = mService.getStkContext(SLOT_ID);
+                Menu mainMenu = mService.getMainMenu(SLOT_ID);
+                mService.getMenu(SLOT_ID);
+                mService.isMenuPending(SLOT_ID);
+                mService.isInputPending(SLOT_ID);
+                mService.isDialogPending(SLOT_ID);
+                mService.isMainMenuAvailable(SLOT_ID);
+                maxReadNanos = Math.max(maxReadNanos, System.nanoTime() - start);
+                readCount++;
+
+                assertThat(context).isNotNull();
+                assertThat(mainMenu).isNotNull();
+                assertThat(mainMenu.title).isAnyOf("Menu A", "Menu B");
+            }
+        } finally {
+            mIsRunning = false;
+            holder.join();
+            sender.join();
+        }
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+
+        long maxReadMs = TimeUnit.NANOSECONDS.toMillis(maxReadNanos);
+        Log.i(TAG, readCount + " reads while the monitor was held " + holdCount.get()
+                + " times, max read " + maxReadMs + " ms");
+        assertThat(holdCount.get()).isGreaterThan(0);
+        assertThat(maxReadMs).isLessThan(HOLD_MS);
+    }
+}